@@ -0,0 +1,210 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jessma.logcutter.appender;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.appender.AppenderLoggingException;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.jessma.logcutter.util.ControlBlock;
+
+/**
+ * 
+ * 支持协作轮转的 log4j2 文件 Appender（与 &lt;rotate-files cooperative="true"&gt; 配合使用），
+ * 每次写日志前检查控制块，发现新的轮转请求时重新打开日志文件并写入确认代数。
+ * 
+ * <pre>
+ * &lt;Configuration packages="org.jessma.logcutter.appender"&gt;
+ *   &lt;Appenders&gt;
+ *     &lt;CooperativeFile name="app" fileName="logs/app.log"&gt;
+ *       &lt;PatternLayout pattern="%d %-5p %m%n"/&gt;
+ *     &lt;/CooperativeFile&gt;
+ *   &lt;/Appenders&gt;
+ *   ...
+ * </pre>
+ *
+ */
+@Plugin(name = "CooperativeFile", category = "Core", elementType = "appender", printObject = true)
+public class CooperativeFileAppender extends AbstractAppender
+{
+	private static final long serialVersionUID = 1L;
+
+	private final File file;
+	private final ControlBlock control;
+
+	private OutputStream out;
+	private long generation;
+
+	private CooperativeFileAppender(String name, Filter filter, Layout<? extends Serializable> layout, boolean ignoreExceptions, File file, ControlBlock control)
+	{
+		super(name, filter, layout, ignoreExceptions);
+
+		this.file		= file;
+		this.control	= control;
+	}
+
+	@PluginFactory
+	public static CooperativeFileAppender createAppender(
+								@PluginAttribute("name") String name,
+								@PluginAttribute("fileName") String fileName,
+								@PluginAttribute("ignoreExceptions") String ignore,
+								@PluginElement("Layout") Layout<? extends Serializable> layout,
+								@PluginElement("Filter") Filter filter)
+	{
+		if(name == null)
+		{
+			LOGGER.error("No name provided for CooperativeFileAppender");
+			return null;
+		}
+
+		if(fileName == null)
+		{
+			LOGGER.error("No filename provided for CooperativeFileAppender with name " + name);
+			return null;
+		}
+
+		if(layout == null)
+			layout = PatternLayout.createDefaultLayout();
+
+		File file = new File(fileName);
+
+		try
+		{
+			File parent = file.getAbsoluteFile().getParentFile();
+
+			if(parent != null)
+				parent.mkdirs();
+
+			ControlBlock control = ControlBlock.open(file);
+
+			return new CooperativeFileAppender(name, filter, layout, !"false".equalsIgnoreCase(ignore), file, control);
+		}
+		catch(IOException e)
+		{
+			LOGGER.error("Unable to open control block of " + fileName, e);
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized void start()
+	{
+		try
+		{
+			reopen(control.getRequest());
+		}
+		catch(IOException e)
+		{
+			LOGGER.error("Unable to open " + file, e);
+		}
+
+		super.start();
+	}
+
+	@Override
+	public synchronized void stop()
+	{
+		super.stop();
+
+		if(out != null)
+		{
+			try
+			{
+				byte[] footer = getLayout().getFooter();
+
+				if(footer != null)
+					out.write(footer);
+
+				out.close();
+			}
+			catch(IOException e)
+			{
+				LOGGER.error("Unable to close " + file, e);
+			}
+
+			out = null;
+		}
+	}
+
+	@Override
+	public synchronized void append(LogEvent event)
+	{
+		try
+		{
+			long request = control.getRequest();
+
+			if(request != generation || out == null)
+				reopen(request);
+
+			out.write(getLayout().toByteArray(event));
+		}
+		catch(IOException e)
+		{
+			error("Unable to write to " + file, event, e);
+
+			if(!ignoreExceptions())
+				throw new AppenderLoggingException(e);
+		}
+	}
+
+	/** 关闭当前文件（可能已被改名为分段文件）并以追加方式重新打开日志文件，然后确认轮转请求 */
+	private void reopen(long request) throws IOException
+	{
+		if(out != null)
+		{
+			try {out.close();}
+			catch (IOException e) {}
+
+			out = null;
+		}
+
+		boolean empty	= file.length() == 0;
+		out				= new FileOutputStream(file, true);
+
+		if(empty)
+		{
+			byte[] header = getLayout().getHeader();
+
+			if(header != null)
+				out.write(header);
+		}
+
+		generation = request;
+		control.ack(request);
+	}
+}
@@ -26,6 +26,7 @@ package org.jessma.logcutter.global;
 
 
 import java.io.File;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
@@ -45,6 +46,12 @@ import static org.jessma.logcutter.util.GeneralHelper.str2Long;
 
 public class AppConfig
 {
+	/** 持久化方式：NONE - 不刷新磁盘；BATCHED - 批量刷新（归档文件按批刷新后再删除源文件）；STRICT - 逐个文件刷新 */
+	public static enum Durability
+	{
+		NONE, BATCHED, STRICT
+	}
+
 	private static final String APP_NAME				= "LogCutter";
 	private static final String APP_VERSION				= "2.0.2";
 	private static final String CLASS_PATH				= GeneralHelper.getClassResourcePath(AppConfig.class, "/");
@@ -60,16 +67,32 @@ public class AppConfig
 	private static final long DEF_CUT_FILES_THRESHOLD	= 10240L;
 	private static final long DEF_CUT_FILES_RESERVE		= 1024L;
 	private static final long DEF_ARC_FILES_EXPIRE		= 90L;
+	private static final long DEF_ROT_FILES_THRESHOLD	= 10240L;
+	private static final String DEF_ROT_FILES_SIGNAL	= "HUP";
+	private static final long DEF_ROT_FILES_ACK_TIMEOUT	= 30L;
+	private static final int DEF_FILE_MAX_DEPTH			= 16;
+	private static final int DEF_PREFETCH_LIMIT			= 16;
+	private static final long DEF_WATCH_DELAY			= 5L;
 
 	private static String log4jConfigFile	= DEF_LOG4J_CONF_FILE;
 	private static String lockFile			= DEF_LOCK_FILE;
 
 	private static long startCheckDelay		= DEF_START_CHK_DELAY;
 	private static long checkInterval		= DEF_CHK_INTERVAL;
+	private static boolean charsetXattr		= false;
+	private static Durability durability	= Durability.NONE;
+	private static int scanQueueSize		= 0;
+	private static boolean sharedScan		= false;
+	private static int parallelism			= 0;
+	private static int prefetchLimit		= DEF_PREFETCH_LIMIT;
+	private static boolean scanJournal		= false;
+	private static boolean watch			= false;
+	private static long watchDelay			= DEF_WATCH_DELAY;
 
 	private static List<DelFilePath> delFiles	= new ArrayList<DelFilePath>();
 	private static List<CutFilePath> cutFiles	= new ArrayList<CutFilePath>();
 	private static List<ArcFilePath> arcFiles	= new ArrayList<ArcFilePath>();
+	private static List<RotFilePath> rotFiles	= new ArrayList<RotFilePath>();
 
 	public static final String getAppName()
 	{
@@ -116,6 +139,64 @@ public class AppConfig
 		return checkInterval;
 	}
 
+	public static final boolean isCharsetXattr()
+	{
+		return charsetXattr;
+	}
+
+	public static final Durability getDurability()
+	{
+		return durability;
+	}
+
+	public static final int getScanQueueSize()
+	{
+		return scanQueueSize;
+	}
+
+	public static final boolean isSharedScan()
+	{
+		return sharedScan;
+	}
+
+	public static final int getParallelism()
+	{
+		return parallelism;
+	}
+
+	public static final int getPrefetchLimit()
+	{
+		return prefetchLimit;
+	}
+
+	public static final boolean isScanJournal()
+	{
+		return scanJournal;
+	}
+
+	public static final boolean isWatch()
+	{
+		return watch;
+	}
+
+	public static final long getWatchDelay()
+	{
+		return watchDelay;
+	}
+
+	/** 获取扫描日志文件：与锁文件位于同一目录，文件名为锁文件名（去掉扩展名）加 '.journal' */
+	public static final String getJournalFile()
+	{
+		File lock	= new File(lockFile);
+		String name	= lock.getName();
+		int dot		= name.lastIndexOf('.');
+
+		if(dot > 0)
+			name = name.substring(0, dot);
+
+		return new File(lock.getParentFile(), name + ".journal").getPath();
+	}
+
 	public static final List<DelFilePath> getDelFiles()
 	{
 		return delFiles;
@@ -146,6 +227,16 @@ public class AppConfig
 		return !arcFiles.isEmpty();
 	}
 
+	public static final List<RotFilePath> getRotFiles()
+	{
+		return rotFiles;
+	}
+
+	public static final boolean hasRotFiles()
+	{
+		return !rotFiles.isEmpty();
+	}
+
 	@SuppressWarnings("unchecked")
 	public static final void init(String file)
 	{
@@ -173,8 +264,12 @@ public class AppConfig
     		List<Element> afs = root.elements("archive-files");
     		parseArcFiles(afs);
 
-    		if(!hasDelFiles() && !hasCutFiles() && !hasArcFiles())
-    			throw new RuntimeException("none of 'delete-files' / 'cut-files' / 'archive-files' found");
+    		// <rotate-files>
+    		List<Element> rfs = root.elements("rotate-files");
+    		parseRotFiles(rfs);
+
+    		if(!hasDelFiles() && !hasCutFiles() && !hasArcFiles() && !hasRotFiles())
+    			throw new RuntimeException("none of 'delete-files' / 'cut-files' / 'archive-files' / 'rotate-files' found");
 		}
 		catch(Exception e)
 		{
@@ -231,6 +326,76 @@ public class AppConfig
 				if(isStrNotEmpty(lock))
 					lockFile = lock;
 			}
+
+			// <charset-xattr>
+			Element csXattr = global.element("charset-xattr");
+			if(csXattr != null)
+				charsetXattr = GeneralHelper.str2Boolean(csXattr.getTextTrim(), false);
+
+			// <durability>
+			Element dura = global.element("durability");
+			if(dura != null && isStrNotEmpty(dura.getTextTrim()))
+			{
+				try
+				{
+					durability = Durability.valueOf(dura.getTextTrim().toUpperCase());
+				}
+				catch(IllegalArgumentException ex)
+				{
+					throw new RuntimeException(String.format("'durability' not supported: '%s'", dura.getTextTrim()));
+				}
+			}
+
+			// <scan-queue-size>
+			Element scanQueue = global.element("scan-queue-size");
+			if(scanQueue != null)
+			{
+				scanQueueSize = (int)str2Long(scanQueue.getTextTrim(), -1);
+				if(scanQueueSize < 0)
+					scanQueueSize = 0;
+			}
+
+			// <shared-scan>
+			Element shScan = global.element("shared-scan");
+			if(shScan != null)
+				sharedScan = GeneralHelper.str2Boolean(shScan.getTextTrim(), false);
+
+			// <parallelism>
+			Element para = global.element("parallelism");
+			if(para != null)
+			{
+				parallelism = (int)str2Long(para.getTextTrim(), -1);
+				if(parallelism < 0)
+					parallelism = 0;
+			}
+
+			// <prefetch-limit>
+			Element pfLimit = global.element("prefetch-limit");
+			if(pfLimit != null)
+			{
+				prefetchLimit = (int)str2Long(pfLimit.getTextTrim(), -1);
+				if(prefetchLimit <= 0)
+					prefetchLimit = DEF_PREFETCH_LIMIT;
+			}
+
+			// <scan-journal>
+			Element scJournal = global.element("scan-journal");
+			if(scJournal != null)
+				scanJournal = GeneralHelper.str2Boolean(scJournal.getTextTrim(), false);
+
+			// <watch>
+			Element wat = global.element("watch");
+			if(wat != null)
+				watch = GeneralHelper.str2Boolean(wat.getTextTrim(), false);
+
+			// <watch-delay>
+			Element watDelay = global.element("watch-delay");
+			if(watDelay != null)
+			{
+				watchDelay = str2Long(watDelay.getTextTrim(), -1);
+				if(watchDelay < 0)
+					watchDelay = DEF_WATCH_DELAY;
+			}
 		}
 	}
 
@@ -257,6 +422,7 @@ public class AppConfig
 				DelFilePath fp = new DelFilePath(delFilesExpire);
 				
 				parseFilePath(f, fp);
+				parseAgeOptions(f, fp);
 				delFiles.add(fp);
 			}
 		}
@@ -291,11 +457,108 @@ public class AppConfig
 			if(cutFilesThreshold <= cutFilesReserve)
 				throw new RuntimeException("'cut-files.threshold' must greater then 'cut-files.reserve'");
 
+			// <cut-files.reserve-lines>
+			long cutFilesReserveLines = 0;
+			Attribute reserveLines = e.attribute("reserve-lines");
+			if(reserveLines != null)
+			{
+				cutFilesReserveLines = str2Long(reserveLines.getValue(), -1);
+				if(cutFilesReserveLines <= 0)
+					throw new RuntimeException("'cut-files.reserve-lines' must be a positive integer");
+			}
+
+			// <cut-files.reserve-time>
+			long cutFilesReserveTime = 0;
+			String cutFilesTsPattern = null;
+			Attribute reserveTime = e.attribute("reserve-time");
+			if(reserveTime != null)
+			{
+				cutFilesReserveTime = parseDuration(reserveTime.getValue());
+				if(cutFilesReserveTime <= 0)
+					throw new RuntimeException(String.format("'cut-files.reserve-time' invalid: '%s'", reserveTime.getValue()));
+
+				// <cut-files.timestamp-pattern>
+				Attribute tsPattern = e.attribute("timestamp-pattern");
+				if(tsPattern == null || isStrEmpty(tsPattern.getValue()))
+					throw new RuntimeException("'cut-files.timestamp-pattern' attribute must be set with 'cut-files.reserve-time'");
+
+				cutFilesTsPattern = tsPattern.getValue();
+
+				try
+				{
+					new SimpleDateFormat(cutFilesTsPattern);
+				}
+				catch(IllegalArgumentException ex)
+				{
+					throw new RuntimeException(String.format("'cut-files.timestamp-pattern' invalid: '%s'", cutFilesTsPattern), ex);
+				}
+			}
+
+			// <cut-files.charset>
+			Charset cutFilesCharset = null;
+			Attribute charset = e.attribute("charset");
+			if(charset != null && isStrNotEmpty(charset.getValue()))
+			{
+				cutFilesCharset = Charset.fromName(charset.getValue().trim());
+				if(cutFilesCharset == null)
+					throw new RuntimeException(String.format("'cut-files.charset' not supported: '%s'", charset.getValue()));
+			}
+
+			// <cut-files.mode>
+			CutFilePath.Mode cutFilesMode = CutFilePath.Mode.COPY;
+			Attribute mode = e.attribute("mode");
+			if(mode != null && isStrNotEmpty(mode.getValue()))
+			{
+				try
+				{
+					cutFilesMode = CutFilePath.Mode.valueOf(mode.getValue().trim().toUpperCase());
+				}
+				catch(IllegalArgumentException ex)
+				{
+					throw new RuntimeException(String.format("'cut-files.mode' not supported: '%s'", mode.getValue()));
+				}
+			}
+
+			// <cut-files.archive-path>
+			String cutFilesArcPath = null;
+			Attribute ap = e.attribute("archive-path");
+			if(ap != null)
+			{
+				cutFilesArcPath = ap.getValue();
+				if(isStrEmpty(cutFilesArcPath))
+					throw new RuntimeException("'cut-files.archive-path' attribute must not empty");
+				
+				if(!cutFilesArcPath.endsWith(File.separator))
+					cutFilesArcPath = cutFilesArcPath + File.separator;
+			}
+
+			// <cut-files.archive-format>
+			CutFilePath.ArchiveFormat cutFilesArcFormat = CutFilePath.ArchiveFormat.ZIP;
+			Attribute af = e.attribute("archive-format");
+			if(af != null && isStrNotEmpty(af.getValue()))
+			{
+				try
+				{
+					cutFilesArcFormat = CutFilePath.ArchiveFormat.valueOf(af.getValue().trim().toUpperCase());
+				}
+				catch(IllegalArgumentException ex)
+				{
+					throw new RuntimeException(String.format("'cut-files.archive-format' not supported: '%s'", af.getValue()));
+				}
+			}
+
 			// <file>
 			List<Element> fs = e.elements("file");
 			for(Element f : fs)
 			{
 				CutFilePath fp = new CutFilePath(cutFilesThreshold, cutFilesReserve);
+				fp.setReserveLines(cutFilesReserveLines);
+				fp.setReserveTime(cutFilesReserveTime);
+				fp.setTimestampPattern(cutFilesTsPattern);
+				fp.setCharset(cutFilesCharset);
+				fp.setMode(cutFilesMode);
+				fp.setArchivePath(cutFilesArcPath);
+				fp.setArchiveFormat(cutFilesArcFormat);
 				
 				parseFilePath(f, fp);
 				cutFiles.add(fp);
@@ -341,11 +604,136 @@ public class AppConfig
 				ArcFilePath fp = new ArcFilePath(arcFilesExpire, arcPath);
 				
 				parseFilePath(f, fp);
+				parseAgeOptions(f, fp);
 				arcFiles.add(fp);
 			}
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	private static void parseRotFiles(List<Element> rfs)
+	{
+		for(Element e : rfs)
+		{
+			long rotFilesThreshold				= DEF_ROT_FILES_THRESHOLD;
+			RotFilePath.Segment rotFilesSegment	= RotFilePath.Segment.NUMBER;
+			boolean rotFilesCreate				= false;
+			String rotFilesPidFile				= null;
+			String rotFilesSignal				= DEF_ROT_FILES_SIGNAL;
+			long rotFilesExpire					= 0;
+			boolean rotFilesCooperative			= false;
+			long rotFilesAckTimeout				= DEF_ROT_FILES_ACK_TIMEOUT;
+
+			// <rotate-files.threshold>
+			Attribute threshold = e.attribute("threshold");
+			if(threshold != null)
+			{
+				rotFilesThreshold = str2Long(threshold.getValue(), -1);
+				if(rotFilesThreshold <= 0)
+					rotFilesThreshold = DEF_ROT_FILES_THRESHOLD;
+			}
+
+			// <rotate-files.segment>
+			Attribute segment = e.attribute("segment");
+			if(segment != null && isStrNotEmpty(segment.getValue()))
+			{
+				try
+				{
+					rotFilesSegment = RotFilePath.Segment.valueOf(segment.getValue().trim().toUpperCase());
+				}
+				catch(IllegalArgumentException ex)
+				{
+					throw new RuntimeException(String.format("'rotate-files.segment' not supported: '%s'", segment.getValue()));
+				}
+			}
+
+			// <rotate-files.create>
+			Attribute create = e.attribute("create");
+			if(create != null)
+				rotFilesCreate = GeneralHelper.str2Boolean(create.getValue(), false);
+
+			// <rotate-files.pid-file>
+			Attribute pidFile = e.attribute("pid-file");
+			if(pidFile != null && isStrNotEmpty(pidFile.getValue()))
+				rotFilesPidFile = pidFile.getValue();
+
+			// <rotate-files.signal>
+			Attribute signal = e.attribute("signal");
+			if(signal != null && isStrNotEmpty(signal.getValue()))
+				rotFilesSignal = signal.getValue().trim();
+
+			// <rotate-files.expire>
+			Attribute exp = e.attribute("expire");
+			if(exp != null)
+			{
+				rotFilesExpire = str2Long(exp.getValue(), -1);
+				if(rotFilesExpire < 0)
+					rotFilesExpire = 0;
+			}
+
+			// <rotate-files.cooperative>
+			Attribute cooperative = e.attribute("cooperative");
+			if(cooperative != null)
+				rotFilesCooperative = GeneralHelper.str2Boolean(cooperative.getValue(), false);
+
+			// <rotate-files.ack-timeout>
+			Attribute ackTimeout = e.attribute("ack-timeout");
+			if(ackTimeout != null)
+			{
+				rotFilesAckTimeout = str2Long(ackTimeout.getValue(), -1);
+				if(rotFilesAckTimeout <= 0)
+					rotFilesAckTimeout = DEF_ROT_FILES_ACK_TIMEOUT;
+			}
+
+			// <file>
+			List<Element> fs = e.elements("file");
+			for(Element f : fs)
+			{
+				RotFilePath fp = new RotFilePath(rotFilesThreshold, rotFilesSegment);
+				fp.setCreate(rotFilesCreate);
+				fp.setPidFile(rotFilesPidFile);
+				fp.setSignal(rotFilesSignal);
+				fp.setExpire(rotFilesExpire);
+				fp.setCooperative(rotFilesCooperative);
+				fp.setAckTimeout(rotFilesAckTimeout);
+				
+				parseFilePath(f, fp);
+				rotFiles.add(fp);
+			}
+		}
+	}
+
+	private static void parseAgeOptions(Element file, FilePath fp)
+	{
+		// <file.date-pattern>
+		Attribute dp = file.attribute("date-pattern");
+		if(dp != null && isStrNotEmpty(dp.getValue()))
+		{
+			try
+			{
+				fp.setDatePattern(new DatePattern(dp.getValue().trim()));
+			}
+			catch(IllegalArgumentException ex)
+			{
+				throw new RuntimeException(String.format("'file.date-pattern' not supported: '%s'", dp.getValue()));
+			}
+		}
+
+		// <file.age-mode>
+		Attribute am = file.attribute("age-mode");
+		if(am != null && isStrNotEmpty(am.getValue()))
+		{
+			try
+			{
+				fp.setAgeMode(FilePath.AgeMode.valueOf(am.getValue().trim().toUpperCase()));
+			}
+			catch(IllegalArgumentException ex)
+			{
+				throw new RuntimeException(String.format("'file.age-mode' not supported: '%s'", am.getValue()));
+			}
+		}
+	}
+
 	private static void parseFilePath(Element file, FilePath fp)
 	{
 		Attribute p = file.attribute("path");
@@ -366,6 +754,35 @@ public class AppConfig
 		
 		fp.setPath(path);
 		fp.setName(name);
+
+		if(isStrEmpty(fp.getFileName()))
+			throw new RuntimeException(String.format("'file' element must end with a file name: '%s'", name));
+
+		// <file.max-depth>
+		int maxDepth	= DEF_FILE_MAX_DEPTH;
+		Attribute md	= file.attribute("max-depth");
+		if(md != null)
+		{
+			maxDepth = (int)str2Long(md.getValue(), -1);
+			if(maxDepth <= 0)
+				maxDepth = DEF_FILE_MAX_DEPTH;
+		}
+
+		fp.setMaxDepth(maxDepth);
+
+		// <file.prefetch>
+		Attribute pf = file.attribute("prefetch");
+		if(pf != null && isStrNotEmpty(pf.getValue()))
+		{
+			try
+			{
+				fp.setPrefetch(FilePath.Prefetch.valueOf(pf.getValue().trim().toUpperCase()));
+			}
+			catch(IllegalArgumentException ex)
+			{
+				throw new RuntimeException(String.format("'file.prefetch' not supported: '%s'", pf.getValue()));
+			}
+		}
 	}
 
 	public static final String summary()
@@ -380,6 +797,15 @@ public class AppConfig
 		sb.append(String.format("%21s : %-5d minutes", "check-interval", checkInterval))	.append(NEWLINE_CHAR);
 		sb.append(String.format("%21s : %s", "log4j-config-file", log4jConfigFile))			.append(NEWLINE_CHAR);
 		sb.append(String.format("%21s : %s", "lock-file", lockFile))						.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %s", "charset-xattr", charsetXattr))				.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %s", "durability", durability.toString().toLowerCase()))	.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %d", "scan-queue-size", scanQueueSize))				.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %s", "shared-scan", sharedScan))					.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %d", "parallelism", parallelism))					.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %d", "prefetch-limit", prefetchLimit))				.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %s", "scan-journal", scanJournal ? getJournalFile() : "false")).append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %s", "watch", watch))								.append(NEWLINE_CHAR);
+		sb.append(String.format("%21s : %-5d seconds", "watch-delay", watchDelay))			.append(NEWLINE_CHAR);
 
 		if(hasDelFiles())
 		{
@@ -396,7 +822,7 @@ public class AppConfig
 					sb.append(String.format("[delete-files] (expire: %d days)", expire))	.append(NEWLINE_CHAR);
 				}
 				
-				sb.append(String.format("%5d. %s", i + 1, dfp))								.append(NEWLINE_CHAR);
+				sb.append(String.format("%5d. %s%s", i + 1, dfp, ageOptionsSummary(dfp)))	.append(NEWLINE_CHAR);
 			}
 		}
 		else
@@ -407,20 +833,17 @@ public class AppConfig
 
 		if(hasCutFiles())
 		{
-			long threshold	= -1;
-			long reserve	= -1;
+			String last = null;
 			
 			for(int i = 0; i < cutFiles.size(); ++i)
 			{
-				CutFilePath cfp = cutFiles.get(i);
+				CutFilePath cfp	= cutFiles.get(i);
+				String header	= cutFilesHeader(cfp);
 				
-				if(cfp.getThreshold() != threshold || cfp.getReserve() != reserve)
+				if(!header.equals(last))
 				{
-					threshold	= cfp.getThreshold();
-					reserve		= cfp.getReserve();
-					
-					sb.append(String.format("[cut-files] (threshold: %d KBs, reserve: %d KBs)", threshold, reserve))
-																							.append(NEWLINE_CHAR);
+					last = header;
+					sb.append(header)					.append(NEWLINE_CHAR);
 				}
 				
 				sb.append(String.format("%5d. %s", i + 1, cfp))								.append(NEWLINE_CHAR);
@@ -450,7 +873,7 @@ public class AppConfig
 																							.append(NEWLINE_CHAR);
 				}
 				
-				sb.append(String.format("%5d. %s", i + 1, afp))								.append(NEWLINE_CHAR);
+				sb.append(String.format("%5d. %s%s", i + 1, afp, ageOptionsSummary(afp)))	.append(NEWLINE_CHAR);
 			}
 		}
 		else
@@ -459,11 +882,106 @@ public class AppConfig
 			sb.append(String.format("%10s", "(none)"))										.append(NEWLINE_CHAR);
 		}
 
+		if(hasRotFiles())
+		{
+			RotFilePath last = null;
+			
+			for(int i = 0; i < rotFiles.size(); ++i)
+			{
+				RotFilePath rfp = rotFiles.get(i);
+				
+				if(	last == null || rfp.getThreshold() != last.getThreshold() || rfp.getSegment() != last.getSegment() ||
+					rfp.isCreate() != last.isCreate() || rfp.getExpire() != last.getExpire() ||
+					rfp.isCooperative() != last.isCooperative() || rfp.getAckTimeout() != last.getAckTimeout() ||
+					!String.valueOf(rfp.getPidFile()).equals(String.valueOf(last.getPidFile()))	)
+				{
+					last = rfp;
+					
+					sb.append(String.format("[rotate-files] (threshold: %d KBs, segment: %s, create: %s, pid-file: '%s', expire: %d days%s)",
+											rfp.getThreshold(), rfp.getSegment().toString().toLowerCase(), rfp.isCreate(),
+											rfp.getPidFile() != null ? rfp.getPidFile() : "", rfp.getExpire(),
+											rfp.isCooperative() ? String.format(", cooperative: %d secs", rfp.getAckTimeout()) : ""))
+																							.append(NEWLINE_CHAR);
+				}
+				
+				sb.append(String.format("%5d. %s", i + 1, rfp))								.append(NEWLINE_CHAR);
+			}
+		}
+		else
+		{
+			sb.append("[rotate-files]")														.append(NEWLINE_CHAR);
+			sb.append(String.format("%10s", "(none)"))										.append(NEWLINE_CHAR);
+		}
+
 		sb.append("------------------------------------------------------------");
 
 		return sb.toString();
 	}
 	
+	private static final String cutFilesHeader(CutFilePath cfp)
+	{
+		String reserve;
+		
+		if(cfp.getReserveTime() > 0)
+			reserve = String.format("%d minutes, '%s'", TimeUnit.MILLISECONDS.toMinutes(cfp.getReserveTime()), cfp.getTimestampPattern());
+		else if(cfp.getReserveLines() > 0)
+			reserve = String.format("%d lines", cfp.getReserveLines());
+		else
+			reserve = String.format("%d KBs", cfp.getReserve());
+		
+		return String.format(	"[cut-files] (threshold: %d KBs, reserve: %s, charset: %s, mode: %s, archive-path: '%s')",
+								cfp.getThreshold(), reserve, cfp.getCharset() != null ? cfp.getCharset() : "auto",
+								cfp.getMode().toString().toLowerCase(), cfp.getArchivePath() != null ? cfp.getArchivePath() : "");
+	}
+	
+	private static final String ageOptionsSummary(FilePath fp)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		if(fp.getDatePattern() != null)
+			sb.append(String.format(" (date-pattern: %s)", fp.getDatePattern()));
+		if(fp.getAgeMode() != FilePath.AgeMode.SHALLOW)
+			sb.append(String.format(" (age-mode: %s)", fp.getAgeMode().toString().toLowerCase()));
+
+		return sb.toString();
+	}
+	
+	/** 解析时间长度（如：'30s'、'45m'、'6h'、'7d'，不带单位时按小时计算），返回毫秒数，格式不正确时返回 -1，单位不支持时抛出异常 */
+	private static final long parseDuration(String value)
+	{
+		String v		= value.trim().toLowerCase();
+		TimeUnit unit	= TimeUnit.HOURS;
+
+		if(v.isEmpty())
+			return -1L;
+
+		switch(v.charAt(v.length() - 1))
+		{
+		case 's':
+			unit = TimeUnit.SECONDS;
+			break;
+		case 'm':
+			unit = TimeUnit.MINUTES;
+			break;
+		case 'h':
+			unit = TimeUnit.HOURS;
+			break;
+		case 'd':
+			unit = TimeUnit.DAYS;
+			break;
+		default:
+			if(!Character.isDigit(v.charAt(v.length() - 1)))
+				throw new RuntimeException(String.format("'time unit' not supported: '%s'", value));
+		}
+
+		if(!Character.isDigit(v.charAt(v.length() - 1)))
+			v = v.substring(0, v.length() - 1);
+
+		long d = str2Long(v, -1);
+
+		return d > 0 ? unit.toMillis(d) : -1L;
+	}
+	
 	private static final long parseDelay(String hhmm)
 	{
 		long ts			= -1L;
@@ -26,6 +26,8 @@ package org.jessma.logcutter.global;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -39,14 +41,7 @@ public enum Charset
 		@Override
 		protected long scan(RandomAccessFile in) throws IOException
 		{
-			int read = -1;
-			while((read = in.read()) >= 0)
-			{
-				if(read == '\n')
-					break;
-			}
-
-			return in.getFilePointer();
+			return LineScanner.scan(in, GB18030_LF);
 		}
 
 		@Override
@@ -61,6 +56,12 @@ public enum Charset
 			return GB18030_BOM.length;
 		}
 
+		@Override
+		public byte[] getLineFeed()
+		{
+			return GB18030_LF;
+		}
+
 		@Override
 		public String toString()
 		{
@@ -73,14 +74,7 @@ public enum Charset
 		@Override
 		public long scan(RandomAccessFile in) throws IOException
 		{
-			int read = -1;
-			while((read = in.read()) >= 0)
-			{
-				if(read == '\n')
-					break;
-			}
-
-			return in.getFilePointer();
+			return LineScanner.scan(in, UTF_8_LF);
 		}
 
 		@Override
@@ -95,6 +89,12 @@ public enum Charset
 			return UTF_8_BOM.length;
 		}
 
+		@Override
+		public byte[] getLineFeed()
+		{
+			return UTF_8_LF;
+		}
+
 		@Override
 		public String toString()
 		{
@@ -107,16 +107,7 @@ public enum Charset
 		@Override
 		public long scan(RandomAccessFile in) throws IOException
 		{
-			int b1 = -1, b2 = -1;
-			while((b1 = in.read()) >= 0)
-			{
-				if(b1 == '\n' && b2 == '\0')
-					break;
-				else
-					b2 = b1;
-			}
-
-			return in.getFilePointer();
+			return LineScanner.scan(in, UTF_16BE_LF);
 		}
 
 		@Override
@@ -131,6 +122,12 @@ public enum Charset
 			return UTF_16BE_BOM.length;
 		}
 
+		@Override
+		public byte[] getLineFeed()
+		{
+			return UTF_16BE_LF;
+		}
+
 		@Override
 		public String toString()
 		{
@@ -143,16 +140,7 @@ public enum Charset
 		@Override
 		public long scan(RandomAccessFile in) throws IOException
 		{
-			int b1 = -1, b2 = -1;
-			while((b1 = in.read()) >= 0)
-			{
-				if(b1 == '\0' && b2 == '\n')
-					break;
-				else
-					b2 = b1;
-			}
-
-			return in.getFilePointer();
+			return LineScanner.scan(in, UTF_16LE_LF);
 		}
 
 		@Override
@@ -167,6 +155,12 @@ public enum Charset
 			return UTF_16LE_BOM.length;
 		}
 
+		@Override
+		public byte[] getLineFeed()
+		{
+			return UTF_16LE_LF;
+		}
+
 		@Override
 		public String toString()
 		{
@@ -177,17 +171,24 @@ public enum Charset
 	private static final int DET_BUFFER_SIZE	= 4096;
 	private static final int DET_TOOTAL_SIZE	= DET_BUFFER_SIZE * 512;
 	private static final Charset DEF_CHARSET	= UTF_8;
+	private static final int PROBE_SIZE			= 4096;
 
 	public static final byte[] GB18030_BOM		= new byte[0];
 	public static final byte[] UTF_8_BOM		= new byte[] { (byte)0xEF, (byte)0xBB, (byte)0xBF };
 	public static final byte[] UTF_16BE_BOM		= new byte[] { (byte)0xFE, (byte)0xFF };
 	public static final byte[] UTF_16LE_BOM		= new byte[] { (byte)0xFF, (byte)0xFE };
 
+	public static final byte[] GB18030_LF		= new byte[] { '\n' };
+	public static final byte[] UTF_8_LF			= new byte[] { '\n' };
+	public static final byte[] UTF_16BE_LF		= new byte[] { '\0', '\n' };
+	public static final byte[] UTF_16LE_LF		= new byte[] { '\n', '\0' };
+
 	protected static final Map<String, Charset> charsetMap = new HashMap<String,  Charset>();
 
 	protected abstract long	scan(RandomAccessFile in) throws IOException;
 	public abstract byte[]	getBom();
 	public abstract int		getBomLength();
+	public abstract byte[]	getLineFeed();
 
 	public static void loadCharsets()
 	{
@@ -198,6 +199,18 @@ public enum Charset
 		charsetMap.put(UTF_16LE.toString(),	UTF_16LE);
 	}
 
+	/** 根据名称获取 {@link Charset} 对象（不区分大小写），名称不支持时返回 null */
+	public static Charset fromName(String name)
+	{
+		for(Charset cs : values())
+		{
+			if(cs.toString().equalsIgnoreCase(name))
+				return cs;
+		}
+
+		return null;
+	}
+
 	public long scanNextLine(RandomAccessFile in) throws IOException
 	{
 		long fp	= in.getFilePointer();
@@ -208,6 +221,12 @@ public enum Charset
 		return pos;
 	}
 
+	/** 获取文件最后 lines 行的起始位置（从文件末尾向前分块查找），文件行数不足时返回 0 */
+	public long scanLastLines(RandomAccessFile in, long lines) throws IOException
+	{
+		return LineScanner.scanBackward(in, getLineFeed(), lines);
+	}
+
 	public static Charset detechCharset(RandomAccessFile in) throws IOException
 	{
 		long filepos = in.getFilePointer();
@@ -231,4 +250,122 @@ public enum Charset
 
 		return cs;
 	}
+
+	/** 快速判断文件编码：检查文件头部 BOM，以及文件当前位置附近探测样本中 '\0' 字节的奇偶分布，
+	 * 
+	 * @return	: 探测样本不足以判断文件编码时返回 null（由 {@link Charset#detechCharset(RandomAccessFile)} 进一步检测）
+	 * 
+	 */
+	public static Charset probeCharset(RandomAccessFile in) throws IOException
+	{
+		FileChannel fc	= in.getChannel();
+		byte[] head		= read(fc, 0, UTF_8_BOM.length);
+
+		if(startsWith(head, UTF_8_BOM))
+			return UTF_8;
+		if(startsWith(head, UTF_16BE_BOM))
+			return UTF_16BE;
+		if(startsWith(head, UTF_16LE_BOM))
+			return UTF_16LE;
+
+		long pos		= in.getFilePointer() & ~1L;
+		byte[] probe	= read(fc, pos, PROBE_SIZE);
+		int evenNul		= 0;
+		int oddNul		= 0;
+
+		for(int i = 0; i < probe.length; i++)
+		{
+			if(probe[i] == 0)
+			{
+				if((i & 1) == 0)
+					++evenNul;
+				else
+					++oddNul;
+			}
+		}
+
+		if(evenNul + oddNul > 0)
+		{
+			int pairs = probe.length / 2;
+
+			if(evenNul >= pairs / 8 && evenNul > oddNul * 8)
+				return UTF_16BE;
+			if(oddNul >= pairs / 8 && oddNul > evenNul * 8)
+				return UTF_16LE;
+
+			return null;
+		}
+
+		// 纯 ASCII 样本无法区分 UTF-8 和 GB18030（两者写入的 BOM 不同），交由检测器判断
+		return isMultiByteUtf8(probe) ? UTF_8 : null;
+	}
+
+	private static byte[] read(FileChannel fc, long pos, int size) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+
+		for(int r = 0; buffer.hasRemaining() && (r = fc.read(buffer, pos)) >= 0; pos += r);
+
+		byte[] data = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, data, 0, data.length);
+
+		return data;
+	}
+
+	private static boolean startsWith(byte[] data, byte[] prefix)
+	{
+		if(prefix.length == 0 || data.length < prefix.length)
+			return false;
+
+		for(int i = 0; i < prefix.length; i++)
+		{
+			if(data[i] != prefix[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/** 检查数据是否为合法的 UTF-8 序列并且包含多字节字符（忽略首尾被截断的字符） */
+	private static boolean isMultiByteUtf8(byte[] data)
+	{
+		int i		= 0;
+		int multi	= 0;
+
+		while(i < data.length && i < 3 && (data[i] & 0xC0) == 0x80)
+			++i;
+
+		while(i < data.length)
+		{
+			int b = data[i] & 0xFF;
+			int n;
+
+			if(b < 0x80)
+				n = 0;
+			else if(b >= 0xC2 && b <= 0xDF)
+				n = 1;
+			else if(b >= 0xE0 && b <= 0xEF)
+				n = 2;
+			else if(b >= 0xF0 && b <= 0xF4)
+				n = 3;
+			else
+				return false;
+
+			if(i + n >= data.length)
+				break;
+
+			for(int j = 1; j <= n; j++)
+			{
+				if((data[i + j] & 0xC0) != 0x80)
+					return false;
+			}
+
+			if(n > 0)
+				++multi;
+
+			i += n + 1;
+		}
+
+		return multi > 0;
+	}
 }
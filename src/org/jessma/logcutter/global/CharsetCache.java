@@ -0,0 +1,226 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.global;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/** 文件编码缓存：以文件标识（设备号 + inode）和文件头部指纹为键，缓存 {@link Charset#detechCharset(RandomAccessFile)} 的检测结果 */
+public class CharsetCache
+{
+	private static final int FINGERPRINT_SIZE	= 4096;
+	private static final int MAX_ENTRIES		= 10000;
+	private static final String XATTR_NAME		= "logcutter.charset";
+
+	private static final AtomicLong hits		= new AtomicLong();
+	private static final AtomicLong misses		= new AtomicLong();
+	private static final AtomicLong detections	= new AtomicLong();
+
+	private static final Map<Object, CacheEntry> cache = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private static class CacheEntry
+	{
+		final Charset charset;
+		final long fingerprint;
+
+		CacheEntry(Charset charset, long fingerprint)
+		{
+			this.charset		= charset;
+			this.fingerprint	= fingerprint;
+		}
+	}
+
+	/** 获取文件编码：优先使用缓存（内存或扩展属性），缓存未命中时先执行快速探测，
+	 * 探测失败再执行完整的编码检测，并缓存检测结果
+	 */
+	public static Charset getCharset(File file, RandomAccessFile in) throws IOException
+	{
+		Object key			= fileKey(file);
+		long fingerprint	= fingerprint(in);
+		CacheEntry e		= null;
+
+		synchronized(cache)
+		{
+			e = cache.get(key);
+		}
+
+		if(e != null && e.fingerprint == fingerprint)
+		{
+			hits.incrementAndGet();
+			return e.charset;
+		}
+
+		Charset cs = AppConfig.isCharsetXattr() ? readXattr(file, fingerprint) : null;
+
+		if(cs != null)
+			hits.incrementAndGet();
+		else
+		{
+			misses.incrementAndGet();
+			cs = Charset.probeCharset(in);
+
+			if(cs == null)
+			{
+				detections.incrementAndGet();
+				cs = Charset.detechCharset(in);
+			}
+
+			if(AppConfig.isCharsetXattr())
+				writeXattr(file, cs, fingerprint);
+		}
+
+		put(key, cs, fingerprint);
+
+		return cs;
+	}
+
+	/** 文件头部内容发生变化后（如：文件被截断），以新的头部指纹更新缓存 */
+	public static void update(File file, RandomAccessFile in, Charset cs) throws IOException
+	{
+		long fingerprint = fingerprint(in);
+
+		put(fileKey(file), cs, fingerprint);
+
+		if(AppConfig.isCharsetXattr())
+			writeXattr(file, cs, fingerprint);
+	}
+
+	/** 获取缓存命中次数 */
+	public static long getHits()
+	{
+		return hits.get();
+	}
+
+	/** 获取缓存未命中次数 */
+	public static long getMisses()
+	{
+		return misses.get();
+	}
+
+	/** 获取完整编码检测（{@link Charset#detechCharset(RandomAccessFile)}）的执行次数 */
+	public static long getDetections()
+	{
+		return detections.get();
+	}
+
+	private static void put(Object key, Charset cs, long fingerprint)
+	{
+		synchronized(cache)
+		{
+			cache.put(key, new CacheEntry(cs, fingerprint));
+		}
+	}
+
+	private static Object fileKey(File file) throws IOException
+	{
+		BasicFileAttributes attrs	= Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		Object key					= attrs.fileKey();
+
+		return key != null ? key : file.getAbsolutePath();
+	}
+
+	private static long fingerprint(RandomAccessFile in) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(FINGERPRINT_SIZE);
+
+		for(long pos = 0; buffer.hasRemaining(); )
+		{
+			int r = in.getChannel().read(buffer, pos);
+
+			if(r < 0)
+				break;
+
+			pos += r;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+
+		return (crc.getValue() << 16) | buffer.position();
+	}
+
+	private static Charset readXattr(File file, long fingerprint)
+	{
+		try
+		{
+			Path path = file.toPath();
+			UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+
+			if(view == null || !view.list().contains(XATTR_NAME))
+				return null;
+
+			ByteBuffer buffer = ByteBuffer.allocate(view.size(XATTR_NAME));
+			view.read(XATTR_NAME, buffer);
+			buffer.flip();
+
+			String[] value = StandardCharsets.US_ASCII.decode(buffer).toString().split(";");
+
+			if(value.length == 2 && value[1].equals(Long.toHexString(fingerprint)))
+				return Charset.valueOf(value[0]);
+		}
+		catch(Exception e)
+		{
+		}
+
+		return null;
+	}
+
+	private static void writeXattr(File file, Charset cs, long fingerprint)
+	{
+		try
+		{
+			UserDefinedFileAttributeView view = Files.getFileAttributeView(file.toPath(), UserDefinedFileAttributeView.class);
+
+			if(view != null)
+			{
+				String value = cs.name() + ";" + Long.toHexString(fingerprint);
+				view.write(XATTR_NAME, StandardCharsets.US_ASCII.encode(value));
+			}
+		}
+		catch(Exception e)
+		{
+		}
+	}
+}
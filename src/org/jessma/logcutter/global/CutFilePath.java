@@ -2,8 +2,39 @@ package org.jessma.logcutter.global;
 
 public class CutFilePath extends FilePath
 {
+	/** 截断方式：COPY - 搬移保留内容；COLLAPSE - 通过 fallocate 直接移除文件前部的数据块 */
+	public static enum Mode
+	{
+		COPY, COLLAPSE
+	}
+
+	/** 截断内容的归档格式 */
+	public static enum ArchiveFormat
+	{
+		ZIP(".zip"), GZIP(".gz");
+
+		private final String suffix;
+
+		private ArchiveFormat(String suffix)
+		{
+			this.suffix = suffix;
+		}
+
+		public String getSuffix()
+		{
+			return suffix;
+		}
+	}
+
 	private long threshold;
 	private long reserve;
+	private long reserveLines;
+	private long reserveTime;
+	private String timestampPattern;
+	private Charset charset;
+	private String archivePath;
+	private ArchiveFormat archiveFormat = ArchiveFormat.ZIP;
+	private Mode mode = Mode.COPY;
 
 	public CutFilePath(long threshold, long reserve)
 	{
@@ -31,4 +62,74 @@ public class CutFilePath extends FilePath
 		this.reserve = reserve;
 	}
 
+	public long getReserveLines()
+	{
+		return reserveLines;
+	}
+
+	public void setReserveLines(long reserveLines)
+	{
+		this.reserveLines = reserveLines;
+	}
+
+	public long getReserveTime()
+	{
+		return reserveTime;
+	}
+
+	public void setReserveTime(long reserveTime)
+	{
+		this.reserveTime = reserveTime;
+	}
+
+	public String getTimestampPattern()
+	{
+		return timestampPattern;
+	}
+
+	public void setTimestampPattern(String timestampPattern)
+	{
+		this.timestampPattern = timestampPattern;
+	}
+
+	public Charset getCharset()
+	{
+		return charset;
+	}
+
+	public void setCharset(Charset charset)
+	{
+		this.charset = charset;
+	}
+
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	public void setMode(Mode mode)
+	{
+		this.mode = mode;
+	}
+
+	public String getArchivePath()
+	{
+		return archivePath;
+	}
+
+	public void setArchivePath(String archivePath)
+	{
+		this.archivePath = archivePath;
+	}
+
+	public ArchiveFormat getArchiveFormat()
+	{
+		return archiveFormat;
+	}
+
+	public void setArchiveFormat(ArchiveFormat archiveFormat)
+	{
+		this.archiveFormat = archiveFormat;
+	}
+
 }
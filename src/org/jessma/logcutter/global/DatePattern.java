@@ -0,0 +1,146 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.global;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** 文件名日期模式：按 {@link SimpleDateFormat} 格式（只支持数字字段 y、M、d、H、m、s、S，如：yyyy-MM-dd、yyyyMMdd）
+ * 在文件名中查找第一个符合格式的日期，不需要读取文件属性
+ */
+public class DatePattern
+{
+	private static final String NUMERIC_FIELDS = "yMdHmsS";
+
+	private final String pattern;
+	private final Pattern regex;
+
+	private final ThreadLocal<SimpleDateFormat> formats = new ThreadLocal<SimpleDateFormat>()
+	{
+		@Override
+		protected SimpleDateFormat initialValue()
+		{
+			SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setLenient(false);
+
+			return format;
+		}
+	};
+
+	/** 创建文件名日期模式，格式包含不支持的字段时抛出 IllegalArgumentException */
+	public DatePattern(String pattern)
+	{
+		new SimpleDateFormat(pattern);
+
+		this.pattern	= pattern;
+		this.regex		= Pattern.compile(toRegex(pattern));
+	}
+
+	/** 获取文件名中的日期（毫秒），文件名不包含符合格式的日期时返回 -1 */
+	public long parse(String name)
+	{
+		Matcher m = regex.matcher(name);
+
+		while(m.find())
+		{
+			Date date = formats.get().parse(m.group(), new ParsePosition(0));
+
+			if(date != null)
+				return date.getTime();
+		}
+
+		return -1;
+	}
+
+	/** 把日期格式转换为正则表达式：数字字段转换为数字（前后不能紧接其它数字），其它字符按原样匹配 */
+	private static String toRegex(String pattern)
+	{
+		StringBuilder sb = new StringBuilder("(?<!\\d)");
+
+		for(int i = 0; i < pattern.length(); )
+		{
+			char c = pattern.charAt(i);
+
+			if(c == '\'')
+			{
+				int end = pattern.indexOf('\'', i + 1);
+
+				if(end < 0)
+					throw new IllegalArgumentException(String.format("unterminated quote in '%s'", pattern));
+
+				sb.append(end == i + 1 ? "'" : Pattern.quote(pattern.substring(i + 1, end)));
+				i = end + 1;
+			}
+			else if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+			{
+				if(NUMERIC_FIELDS.indexOf(c) < 0)
+					throw new IllegalArgumentException(String.format("field '%c' not supported in '%s'", c, pattern));
+
+				int j = i;
+
+				while(j < pattern.length() && pattern.charAt(j) == c)
+					++j;
+
+				sb.append(toRegex(c, j - i));
+				i = j;
+			}
+			else
+			{
+				sb.append(Pattern.quote(String.valueOf(c)));
+				++i;
+			}
+		}
+
+		return sb.append("(?!\\d)").toString();
+	}
+
+	/** 数字字段的正则表达式：多个字母时为相同位数的数字；单个字母时按 {@link SimpleDateFormat} 的解析规则匹配不定位数的数字
+	 * （如：'M' 匹配 1 ~ 2 位数字，yyyy-M-d 可以匹配 2026-10-1）
+	 */
+	private static String toRegex(char field, int count)
+	{
+		if(count > 1)
+			return String.format("\\d{%d}", count);
+
+		switch(field)
+		{
+		case 'y':
+			return "\\d{1,4}";
+		case 'S':
+			return "\\d{1,3}";
+		default:
+			return "\\d{1,2}";
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return pattern;
+	}
+}
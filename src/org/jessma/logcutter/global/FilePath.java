@@ -24,12 +24,38 @@
 
 package org.jessma.logcutter.global;
 
+import org.jessma.logcutter.util.GlobMatcher;
+
+import static org.jessma.logcutter.util.GeneralHelper.IS_WINDOWS_PLATFORM;
+
 public class FilePath
 {
+	/** 文件属性预取：AUTO - 仅网络文件系统；ON - 启用；OFF - 禁用 */
+	public static enum Prefetch
+	{
+		AUTO, ON, OFF
+	}
+
+	/** 文件夹年龄：SHALLOW - 按文件夹自身的最后修改时间；DEEP - 按文件夹及其中所有文件和子文件夹最新的最后修改时间 */
+	public static enum AgeMode
+	{
+		SHALLOW, DEEP
+	}
+
 	private String path;
 
 	private String name;
 
+	private int maxDepth;
+
+	private Prefetch prefetch = Prefetch.AUTO;
+
+	private DatePattern datePattern;
+
+	private AgeMode ageMode = AgeMode.SHALLOW;
+
+	private GlobMatcher nameMatcher;
+
 	public String getPath()
 	{
 		return path;
@@ -47,7 +73,84 @@ public class FilePath
 
 	public void setName(String name)
 	{
-		this.name = name;
+		this.name			= name;
+		this.nameMatcher	= null;
+	}
+
+	/** 获取 name 中的文件名部分（最后一个 '/' 之后的部分） */
+	public String getFileName()
+	{
+		return name.substring(lastSeparator(name) + 1);
+	}
+
+	/** 获取 name 中的目录部分（最后一个 '/' 之前的部分，如：'**' 或 'logs'），没有目录部分时返回空字符串 */
+	public String getDirName()
+	{
+		int i = lastSeparator(name);
+
+		return i < 0 ? "" : name.substring(0, i);
+	}
+
+	/** 获取文件名匹配器（首次调用时编译并缓存，Windows 平台忽略大小写） */
+	public GlobMatcher getNameMatcher()
+	{
+		if(nameMatcher == null)
+			nameMatcher = GlobMatcher.compile(getFileName(), IS_WINDOWS_PLATFORM);
+
+		return nameMatcher;
+	}
+
+	/** 获取通配目录的最大展开深度（相对于 path 中第一个通配目录之前的目录） */
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+
+	public void setMaxDepth(int maxDepth)
+	{
+		this.maxDepth = maxDepth;
+	}
+
+	public Prefetch getPrefetch()
+	{
+		return prefetch;
+	}
+
+	public void setPrefetch(Prefetch prefetch)
+	{
+		this.prefetch = prefetch;
+	}
+
+	/** 获取文件名日期模式，没有设置时返回 null（按文件最后修改时间计算过期时间） */
+	public DatePattern getDatePattern()
+	{
+		return datePattern;
+	}
+
+	public void setDatePattern(DatePattern datePattern)
+	{
+		this.datePattern = datePattern;
+	}
+
+	public AgeMode getAgeMode()
+	{
+		return ageMode;
+	}
+
+	public void setAgeMode(AgeMode ageMode)
+	{
+		this.ageMode = ageMode;
+	}
+
+	/** 判断 path 或 name 是否包含通配目录 */
+	public boolean hasWildcardDir()
+	{
+		return !getDirName().isEmpty() || path.indexOf('*') >= 0 || path.indexOf('?') >= 0;
+	}
+
+	private static int lastSeparator(String str)
+	{
+		return Math.max(str.lastIndexOf('/'), str.lastIndexOf('\\'));
 	}
 
 	@Override
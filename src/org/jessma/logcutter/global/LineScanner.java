@@ -0,0 +1,249 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.global;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** 换行符查找器：以大块直接缓冲区读取文件，并按 8 字节字长批量查找换行符 */
+public final class LineScanner
+{
+	private static final int SCAN_BUFFER_SIZE	= 256 * 1024;
+	private static final byte LINE_FEED			= '\n';
+
+	private static final long ONES				= 0x0101010101010101L;
+	private static final long HIGHS				= 0x8080808080808080L;
+	private static final long LF_MASK			= ONES * LINE_FEED;
+
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	};
+
+	private LineScanner()
+	{
+
+	}
+
+	/** 从文件当前位置开始查找换行符 delimiter（必须包含 '\n'），
+	 *
+	 * @return	: 换行符之后的文件位置，如果找不到换行符则返回文件末尾位置。返回前文件指针被移动到该位置
+	 *
+	 */
+	public static long scan(RandomAccessFile in, byte[] delimiter) throws IOException
+	{
+		final int len		= delimiter.length;
+		final int keyIndex	= indexOfLineFeed(delimiter);
+
+		FileChannel fc	= in.getChannel();
+		ByteBuffer buf	= buffers.get();
+		long readPos	= in.getFilePointer();
+		long bufBase	= readPos;
+
+		buf.clear();
+
+		for(int r = 0; (r = fc.read(buf, readPos)) >= 0; )
+		{
+			readPos += r;
+
+			int n	= buf.position();
+			int hit	= indexOf(buf, n, delimiter, keyIndex);
+
+			if(hit >= 0)
+			{
+				long pos = bufBase + hit + len;
+				in.seek(pos);
+
+				return pos;
+			}
+
+			// 保留末尾 (len - 1) 个字节，以便匹配跨越两次读取的换行符
+			int keep = Math.min(len - 1, n);
+
+			for(int i = 0; i < keep; i++)
+				buf.put(i, buf.get(n - keep + i));
+
+			buf.clear();
+			buf.position(keep);
+			bufBase += n - keep;
+		}
+
+		in.seek(readPos);
+
+		return readPos;
+	}
+
+	/** 从文件末尾向前分块查找换行符 delimiter（必须包含 '\n'），不移动文件指针，
+	 *
+	 * @return	: 文件最后 lines 行的起始位置（文件末尾的换行符不作为行边界），文件行数不足时返回 0
+	 *
+	 */
+	public static long scanBackward(RandomAccessFile in, byte[] delimiter, long lines) throws IOException
+	{
+		final int len		= delimiter.length;
+		final int keyIndex	= indexOfLineFeed(delimiter);
+
+		FileChannel fc	= in.getChannel();
+		ByteBuffer buf	= buffers.get();
+		final long SIZE	= fc.size();
+		long end		= SIZE;
+		long count		= 0;
+
+		while(end > 0)
+		{
+			long start = Math.max(0, end - buf.capacity());
+
+			buf.clear();
+			buf.limit((int)(end - start));
+
+			for(int r = 0; buf.hasRemaining() && (r = fc.read(buf, start + buf.position())) >= 0; );
+
+			int n = buf.position();
+
+			for(int k = prevLineFeed(buf, n - 1); k >= 0; k = prevLineFeed(buf, k - 1))
+			{
+				int s = k - keyIndex;
+
+				if(s < 0)
+					break;
+				if(s + len > n || !matches(buf, s, delimiter))
+					continue;
+
+				long pos = start + s + len;
+
+				if(pos == SIZE)
+					continue;
+				if(++count >= lines)
+					return pos;
+			}
+
+			if(start == 0)
+				break;
+
+			// 前一个窗口与当前窗口重叠 (len - 1) 个字节，以便匹配跨越窗口边界的换行符
+			end = start + len - 1;
+		}
+
+		return 0;
+	}
+
+	private static int indexOf(ByteBuffer buf, int n, byte[] delimiter, int keyIndex)
+	{
+		for(int k = nextLineFeed(buf, 0, n); k >= 0; k = nextLineFeed(buf, k + 1, n))
+		{
+			int s = k - keyIndex;
+
+			if(s < 0)
+				continue;
+			if(s + delimiter.length > n)
+				break;
+			if(matches(buf, s, delimiter))
+				return s;
+		}
+
+		return -1;
+	}
+
+	private static int nextLineFeed(ByteBuffer buf, int from, int n)
+	{
+		int i = from;
+
+		for(; i + 8 <= n; i += 8)
+		{
+			long x		= buf.getLong(i) ^ LF_MASK;
+			long mask	= (x - ONES) & ~x & HIGHS;
+
+			// 小端字节序下最低的置位字节就是第一个真正的匹配（借位只会影响更高的字节）
+			if(mask != 0)
+				return i + (Long.numberOfTrailingZeros(mask) >>> 3);
+		}
+
+		for(; i < n; i++)
+		{
+			if(buf.get(i) == LINE_FEED)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private static int prevLineFeed(ByteBuffer buf, int from)
+	{
+		int i = from;
+
+		for(; i >= 7; i -= 8)
+		{
+			long x		= buf.getLong(i - 7) ^ LF_MASK;
+			long mask	= (x - ONES) & ~x & HIGHS;
+
+			// 字内存在真正的匹配时掩码才不为 0，逐字节确定最后一个匹配的位置
+			if(mask != 0)
+			{
+				for(int j = i; j >= i - 7; j--)
+				{
+					if(buf.get(j) == LINE_FEED)
+						return j;
+				}
+			}
+		}
+
+		for(; i >= 0; i--)
+		{
+			if(buf.get(i) == LINE_FEED)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private static boolean matches(ByteBuffer buf, int s, byte[] delimiter)
+	{
+		for(int i = 0; i < delimiter.length; i++)
+		{
+			if(buf.get(s + i) != delimiter[i])
+				return false;
+		}
+
+		return true;
+	}
+
+	private static int indexOfLineFeed(byte[] delimiter)
+	{
+		for(int i = 0; i < delimiter.length; i++)
+		{
+			if(delimiter[i] == LINE_FEED)
+				return i;
+		}
+
+		throw new IllegalArgumentException("line delimiter must contain '\\n'");
+	}
+}
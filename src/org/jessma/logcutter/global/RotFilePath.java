@@ -0,0 +1,106 @@
+package org.jessma.logcutter.global;
+
+public class RotFilePath extends FilePath
+{
+	/** 分段文件命名方式：NUMBER - {文件名}.{序号}；DATE - {文件名}.{yyyyMMddHHmmss} */
+	public static enum Segment
+	{
+		NUMBER, DATE
+	}
+
+	private long threshold;
+	private Segment segment;
+	private boolean create;
+	private String pidFile;
+	private String signal;
+	private long expire;
+	private boolean cooperative;
+	private long ackTimeout;
+
+	public RotFilePath(long threshold, Segment segment)
+	{
+		this.threshold	= threshold;
+		this.segment	= segment;
+	}
+
+	public long getThreshold()
+	{
+		return threshold;
+	}
+
+	public void setThreshold(long threshold)
+	{
+		this.threshold = threshold;
+	}
+
+	public Segment getSegment()
+	{
+		return segment;
+	}
+
+	public void setSegment(Segment segment)
+	{
+		this.segment = segment;
+	}
+
+	public boolean isCreate()
+	{
+		return create;
+	}
+
+	public void setCreate(boolean create)
+	{
+		this.create = create;
+	}
+
+	public String getPidFile()
+	{
+		return pidFile;
+	}
+
+	public void setPidFile(String pidFile)
+	{
+		this.pidFile = pidFile;
+	}
+
+	public String getSignal()
+	{
+		return signal;
+	}
+
+	public void setSignal(String signal)
+	{
+		this.signal = signal;
+	}
+
+	public long getExpire()
+	{
+		return expire;
+	}
+
+	public void setExpire(long expire)
+	{
+		this.expire = expire;
+	}
+
+	public boolean isCooperative()
+	{
+		return cooperative;
+	}
+
+	public void setCooperative(boolean cooperative)
+	{
+		this.cooperative = cooperative;
+	}
+
+	public long getAckTimeout()
+	{
+		return ackTimeout;
+	}
+
+	public void setAckTimeout(long ackTimeout)
+	{
+		this.ackTimeout = ackTimeout;
+	}
+
+}
@@ -35,10 +35,14 @@ import static org.jessma.logcutter.global.AppConfig.getDefaultConfigFile;
 import static org.jessma.logcutter.global.AppConfig.getDelFiles;
 import static org.jessma.logcutter.global.AppConfig.getLockFile;
 import static org.jessma.logcutter.global.AppConfig.getLog4jConfigFile;
+import static org.jessma.logcutter.global.AppConfig.getRotFiles;
 import static org.jessma.logcutter.global.AppConfig.getStartCheckDelay;
 import static org.jessma.logcutter.global.AppConfig.hasArcFiles;
 import static org.jessma.logcutter.global.AppConfig.hasCutFiles;
 import static org.jessma.logcutter.global.AppConfig.hasDelFiles;
+import static org.jessma.logcutter.global.AppConfig.hasRotFiles;
+import static org.jessma.logcutter.global.AppConfig.isSharedScan;
+import static org.jessma.logcutter.global.AppConfig.isWatch;
 import static org.jessma.logcutter.global.AppConfig.summary;
 
 import java.io.Console;
@@ -57,10 +61,15 @@ import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.jessma.logcutter.global.AppConfig;
+import org.jessma.logcutter.global.CharsetCache;
 import org.jessma.logcutter.runner.ArcFileRunner;
 import org.jessma.logcutter.runner.CutFileRunner;
 import org.jessma.logcutter.runner.DelFileRunner;
 import org.jessma.logcutter.runner.FileRunner;
+import org.jessma.logcutter.runner.FileWatcher;
+import org.jessma.logcutter.runner.RotFileRunner;
+import org.jessma.logcutter.runner.ScanPlanner;
+import org.jessma.logcutter.util.FileSync;
 import org.jessma.logcutter.util.LogUtil;
 
 import static org.jessma.logcutter.util.GeneralHelper.IS_WINDOWS_PLATFORM;
@@ -73,7 +82,7 @@ public class LogCutter
 {
 	private static Logger logger					= null;
 	
-	private static final String REQ_JAVA_VERSION	= "1.6";
+	private static final String REQ_JAVA_VERSION	= "1.7";
 	private static final String SHOW_HELP_KEY		= "HELP";
 	private static final String SHOW_JOBS_KEY		= "JOBS";
 	private static final String SHOW_SUMMARY_KEY	= "CFG";
@@ -87,6 +96,9 @@ public class LogCutter
 
 	private static FileLock lock;
 	private static List<FileRunner> runners			= new ArrayList<FileRunner>();
+	private static List<Runnable> tasks				= new ArrayList<Runnable>();
+	private static ScanPlanner planner;
+	private static FileWatcher watcher;
 	private static ScheduledThreadPoolExecutor sc 	= new ScheduledThreadPoolExecutor(0);
 	private static boolean isRunOnce				= false;
 	private static volatile boolean hasShutdown		= false;
@@ -218,8 +230,36 @@ public class LogCutter
 
 	private static void startLogCutSchedule()
 	{		
-		for(Runnable r : runners)
-			sc.scheduleAtFixedRate(r, getStartCheckDelay(), getCheckInterval(), SCHEDULE_TIMEUNIT);
+		sc.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+		for(FileRunner r : runners)
+			r.setExecutor(sc);
+
+		for(Runnable t : tasks)
+			sc.scheduleAtFixedRate(t, getStartCheckDelay(), getCheckInterval(), SCHEDULE_TIMEUNIT);
+
+		// 事件模式：监视扫描目录，文件创建或修改后只检查该文件，定期检查时重新展开扫描目录
+		if(isWatch())
+		{
+			try
+			{
+				watcher = new FileWatcher(runners, sc);
+				watcher.start();
+
+				sc.scheduleAtFixedRate(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						watcher.refresh();
+					}
+				}, getCheckInterval(), getCheckInterval(), SCHEDULE_TIMEUNIT);
+			}
+			catch(IOException e)
+			{
+				LogUtil.exception(e, "start file watcher", Level.ERROR, true);
+			}
+		}
 	}
 
 	private static void loadRunners()
@@ -233,6 +273,17 @@ public class LogCutter
 			runners.add(new CutFileRunner(getCutFiles()));
 		if(hasArcFiles())
 			runners.add(new ArcFileRunner(getArcFiles()));
+		if(hasRotFiles())
+			runners.add(new RotFileRunner(getRotFiles()));
+
+		// 共享扫描：所有执行器的目录由一个计划器统一扫描
+		if(isSharedScan())
+		{
+			planner = new ScanPlanner(runners);
+			tasks.add(planner);
+		}
+		else
+			tasks.addAll(runners);
 		
 		sc.setCorePoolSize(runners.size());
 	}
@@ -281,11 +332,11 @@ public class LogCutter
 		out.println(msg);
 		logger.info(msg);
 		
-		int size		= runners.size();
+		int size		= tasks.size();
 		Future<?>[] fs	= new Future<?>[size];
 		
 		for(int i = 0; i < size; i++)
-			fs[i] = sc.submit(runners.get(i));
+			fs[i] = sc.submit(tasks.get(i));
 		
 		for(int i = 0; i < size; i++)
 		{
@@ -311,6 +362,9 @@ public class LogCutter
 
 			out.println("be about to shutdown, please wait ...");
 
+			if(watcher != null)
+				watcher.close();
+
 			sc.shutdown();
 
 			try
@@ -400,7 +454,7 @@ public class LogCutter
 
 	private static void executeRunner()
 	{
-		for(Runnable r : runners)
+		for(Runnable r : tasks)
 			sc.execute(r);
 
 		out.println("manual jobs are scheduled !");
@@ -437,8 +491,34 @@ public class LogCutter
 			String status	= r.isRunning() ? "Active" : " Idle ";
 
 			sb.append(String.format("%5d. %-39s%4s[ %s ]", i + 1, r, "", status))						.append(NEWLINE_CHAR);
+
+			String stat = r.getStatistics();
+			if(!stat.isEmpty())
+				sb.append(String.format("%7s(%s)", "", stat))											.append(NEWLINE_CHAR);
+		}
+
+		if(planner != null)
+		{
+			String status = planner.isRunning() ? "Active" : " Idle ";
+
+			sb.append(String.format("%5s  %-39s%4s[ %s ]", "*", planner, "", status))					.append(NEWLINE_CHAR);
+			sb.append(String.format("%7s(%s)", "", planner.getStatistics()))							.append(NEWLINE_CHAR);
 		}
 
+		if(watcher != null)
+		{
+			sb.append(String.format("%5s  %-39s%4s[ %s ]", "*", watcher, "", "Watch "))				.append(NEWLINE_CHAR);
+			sb.append(String.format("%7s(%s)", "", watcher.getStatistics()))							.append(NEWLINE_CHAR);
+		}
+
+		sb.append("------------------------------------------------------------")						.append(NEWLINE_CHAR);
+		sb.append(String.format("charset cache (hits: %d, misses: %d, detections: %d)",
+								CharsetCache.getHits(), CharsetCache.getMisses(), CharsetCache.getDetections()))
+																										.append(NEWLINE_CHAR);
+		sb.append(String.format("fsync (count: %d, avg: %.3f ms, max: %.3f ms)",
+								FileSync.getSyncs(), FileSync.getAverageMillis(), FileSync.getMaxMillis()))
+																										.append(NEWLINE_CHAR);
+
 		sb.append("------------------------------------------------------------")						.append(NEWLINE_CHAR);
 
 		out.print(sb.toString());
@@ -450,7 +530,7 @@ public class LogCutter
 
 		sb.append(String.format("%s %s - JessMA Open Source, all rights reserved. ", getAppName(), getAppVersion()))								.append(NEWLINE_CHAR);
 		sb.append("------------------------------------------------------------")																	.append(NEWLINE_CHAR);
-		sb.append(String.format("%15s : ", "Description"))	.append("schedule to DELETE, CUT and ARCHIVE text log files automatically or manually.").append(NEWLINE_CHAR);
+		sb.append(String.format("%15s : ", "Description"))	.append("schedule to DELETE, CUT, ARCHIVE and ROTATE text log files automatically or manually.").append(NEWLINE_CHAR);
 		sb.append(String.format("%15s : ", "Support"))		.append("GB18030, UTF-8, UTF-16LE and UTF-16BE text file types.")						.append(NEWLINE_CHAR);
 		sb.append(String.format("%15s : ", "Usage"))		.append(USAGE)																			.append(NEWLINE_CHAR);
 		sb.append(String.format("%15s   ", ""))				.append(String.format("(default config file is '%s')", getDefaultConfigFile()))			.append(NEWLINE_CHAR);
@@ -25,45 +25,67 @@
 package org.jessma.logcutter.runner;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.util.Date;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
 
 import org.apache.logging.log4j.Logger;
+import org.jessma.logcutter.global.AppConfig.Durability;
 import org.jessma.logcutter.global.ArcFilePath;
 import org.jessma.logcutter.global.FilePath;
+import org.jessma.logcutter.util.ControlBlock;
+import org.jessma.logcutter.util.FileSync;
 import org.jessma.logcutter.util.LogUtil;
 import org.jessma.logcutter.util.archive.Zipper;
 
+import static org.jessma.logcutter.global.AppConfig.getDurability;
+
 public class ArcFileRunner extends FileRunner
 {
-	private static final Logger logger = LogUtil.getDefaultLogger();
+	private static final Logger logger			= LogUtil.getDefaultLogger();
+
+	private static final int SYNC_BATCH_SIZE	= 256;
+
+	/** 等待批量刷新的归档：{ 源文件, 归档文件 }（并行模式下多个线程同时访问，以自身作为锁） */
+	private final List<File[]> pending			= new ArrayList<File[]>();
 	
 	public ArcFileRunner(List<ArcFilePath> files)
 	{
 		super(files);
 	}
 
+	/** 归档包含删除源文件，优先于删除执行器，避免应归档的文件被直接删除 */
+	@Override
+	protected int getPriority()
+	{
+		return 0;
+	}
+
+	@Override
+	protected long getExpire(FilePath fp)
+	{
+		return ((ArcFilePath)fp).getExpire();
+	}
+
 	@Override
-	protected FileFilter getFileFilter(final FilePath fp)
+	protected FileFilterBase getFileFilter(final FilePath fp)
 	{
-		return new FileFilterBase(fp.getName())
+		return new FileFilterBase(fp)
 		{
 			@Override
-			protected boolean doAccept(File file)
+			protected boolean doAccept(File file, BasicFileAttributes attrs)
 			{
-				long now	= new Date().getTime();
-				long last	= file.lastModified();
-				long days	= TimeUnit.MILLISECONDS.toDays(now - last);
-
-				return days >= ((ArcFilePath)fp).getExpire();
+				return !ControlBlock.isControlFile(file) && isExpired(file, attrs, fp, ((ArcFilePath)fp).getExpire());
 			}
 		};
 	}
 
 	@Override
-	protected void process(File file, final FilePath fp)
+	protected void process(File file, BasicFileAttributes attrs, final FilePath fp)
 	{
 		try
 		{
@@ -79,10 +101,36 @@ public class ArcFileRunner extends FileRunner
 			
 			if(zipper.execute())
 			{
-				if(deleteFile(file))
-					logger.info("OK !");
+				File archive = new File(target);
+
+				if(getDurability() == Durability.BATCHED)
+				{
+					boolean full;
+
+					synchronized(pending)
+					{
+						pending.add(new File[] {file, archive});
+						full = pending.size() >= SYNC_BATCH_SIZE;
+					}
+
+					logger.info("OK ! (source file will be deleted after sync)");
+
+					if(full)
+						syncPending();
+				}
 				else
-					logger.warn("archive success, but can not delete source file !");
+				{
+					if(getDurability() == Durability.STRICT)
+					{
+						FileSync.sync(archive);
+						FileSync.syncDirectory(archive.getAbsoluteFile().getParentFile());
+					}
+
+					if(deleteFile(file))
+						logger.info("OK !");
+					else
+						logger.warn("archive success, but can not delete source file !");
+				}
 			}
 			else
 				logger.info("FAIL !");
@@ -92,4 +140,68 @@ public class ArcFileRunner extends FileRunner
 			logger.error("Exception -> {}", e);
 		}
 	}
+
+	@Override
+	protected void complete()
+	{
+		syncPending();
+	}
+
+	/** 批量提交：刷新本批所有归档文件及其所在目录，全部成功刷新后才删除对应的源文件 */
+	private void syncPending()
+	{
+		List<File[]> batch;
+
+		synchronized(pending)
+		{
+			if(pending.isEmpty())
+				return;
+
+			batch = new ArrayList<File[]>(pending);
+			pending.clear();
+		}
+
+		long begin				= System.nanoTime();
+		List<File[]> synced		= new ArrayList<File[]>(batch.size());
+		Set<File> dirs			= new LinkedHashSet<File>();
+		Set<File> failedDirs	= new HashSet<File>();
+
+		for(File[] item : batch)
+		{
+			try
+			{
+				FileSync.sync(item[1]);
+				synced.add(item);
+				dirs.add(item[1].getAbsoluteFile().getParentFile());
+			}
+			catch(IOException e)
+			{
+				logger.warn("can not sync '{}', keep source file '{}' -> {}", item[1], item[0], e.toString());
+			}
+		}
+
+		for(File dir : dirs)
+		{
+			try
+			{
+				FileSync.syncDirectory(dir);
+			}
+			catch(IOException e)
+			{
+				failedDirs.add(dir);
+				logger.warn("can not sync directory '{}', keep source files -> {}", dir, e.toString());
+			}
+		}
+
+		int deleted = 0;
+
+		for(File[] item : synced)
+		{
+			if(!failedDirs.contains(item[1].getAbsoluteFile().getParentFile()) && deleteFile(item[0]))
+				++deleted;
+		}
+
+		logger.info(String.format("sync %d archives in %d directories in %.1f ms, %d source files deleted",
+									synced.size(), dirs.size(), (System.nanoTime() - begin) / 1000000.0, deleted));
+	}
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jessma.logcutter.runner;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.jessma.logcutter.global.FilePath;
+
+import static org.jessma.logcutter.global.AppConfig.getPrefetchLimit;
+
+/** 文件属性预取器：在网络文件系统上并发读取文件属性以隐藏网络往返延迟，
+ * 同一挂载点同时进行中的读取数不超过 prefetch-limit，读取结果按提交顺序交给使用者
+ */
+class AttributePrefetcher
+{
+	/** 自动启用预取的网络文件系统类型 */
+	private static final Set<String> REMOTE_TYPES = new HashSet<String>(Arrays.asList(
+			"nfs", "nfs4", "cifs", "smb", "smb2", "smb3", "smbfs", "ncpfs", "afs", "9p",
+			"fuse.sshfs", "glusterfs", "fuse.glusterfs", "ceph", "fuse.ceph", "lustre", "gpfs"));
+
+	private static final ConcurrentMap<String, Semaphore> limits	= new ConcurrentHashMap<String, Semaphore>();
+	private static final ConcurrentMap<Path, FileStore> stores		= new ConcurrentHashMap<Path, FileStore>();
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "attribute-prefetcher");
+			t.setDaemon(true);
+
+			return t;
+		}
+	});
+
+	/** 预取结果使用者 */
+	static interface Consumer
+	{
+		/** 按提交顺序处理文件属性（文件已不存在时 attrs 为 null），返回 false 时停止 */
+		boolean accept(Path path, BasicFileAttributes attrs) throws Exception;
+	}
+
+	private final Semaphore limit;
+	private final Consumer consumer;
+	private final Deque<Object[]> window = new ArrayDeque<Object[]>();
+
+	private boolean stopped;
+
+	private AttributePrefetcher(Semaphore limit, Consumer consumer)
+	{
+		this.limit		= limit;
+		this.consumer	= consumer;
+	}
+
+	/** 判断扫描目录 dir 时是否启用预取：按规则的 prefetch 属性，auto 时只对网络文件系统启用 */
+	static boolean isEnabled(Path dir, FilePath fp)
+	{
+		switch(fp.getPrefetch())
+		{
+		case ON:
+			return true;
+		case OFF:
+			return false;
+		default:
+			FileStore store = getFileStore(dir);
+			return store != null && REMOTE_TYPES.contains(store.type().toLowerCase());
+		}
+	}
+
+	/** 创建目录 dir 的预取器 */
+	static AttributePrefetcher open(Path dir, Consumer consumer)
+	{
+		FileStore store	= getFileStore(dir);
+		String key		= store != null ? store.name() : dir.toString();
+		Semaphore limit	= limits.get(key);
+
+		if(limit == null)
+		{
+			Semaphore s	= new Semaphore(getPrefetchLimit());
+			limit		= limits.putIfAbsent(key, s);
+
+			if(limit == null)
+				limit = s;
+		}
+
+		return new AttributePrefetcher(limit, consumer);
+	}
+
+	/** 提交文件，窗口已满时先处理最早提交的文件，返回 false 表示使用者要求停止 */
+	boolean add(final Path path) throws Exception
+	{
+		if(stopped)
+			return false;
+
+		if(window.size() >= getPrefetchLimit() * 2)
+			consumeHead();
+
+		if(stopped)
+			return false;
+
+		limit.acquire();
+
+		Future<BasicFileAttributes> future;
+
+		try
+		{
+			future = executor.submit(new Callable<BasicFileAttributes>()
+			{
+				@Override
+				public BasicFileAttributes call() throws Exception
+				{
+					try
+					{
+						return Files.readAttributes(path, BasicFileAttributes.class);
+					}
+					catch(IOException e)
+					{
+						return null;
+					}
+					finally
+					{
+						limit.release();
+					}
+				}
+			});
+		}
+		catch(RuntimeException e)
+		{
+			limit.release();
+			throw e;
+		}
+
+		window.add(new Object[] {path, future});
+
+		return true;
+	}
+
+	/** 处理所有已提交的文件（使用者要求停止时丢弃剩余的结果），返回 false 表示使用者要求停止 */
+	boolean finish() throws Exception
+	{
+		while(!window.isEmpty())
+		{
+			if(stopped)
+			{
+				window.clear();
+				break;
+			}
+
+			consumeHead();
+		}
+
+		return !stopped;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void consumeHead() throws Exception
+	{
+		Object[] head = window.poll();
+
+		BasicFileAttributes attrs;
+
+		try
+		{
+			attrs = ((Future<BasicFileAttributes>)head[1]).get();
+		}
+		catch(ExecutionException e)
+		{
+			attrs = null;
+		}
+
+		if(!consumer.accept((Path)head[0], attrs))
+			stopped = true;
+	}
+
+	private static FileStore getFileStore(Path dir)
+	{
+		FileStore store = stores.get(dir);
+
+		if(store == null)
+		{
+			try
+			{
+				store = Files.getFileStore(dir);
+				stores.put(dir, store);
+			}
+			catch(IOException e)
+			{
+			}
+		}
+
+		return store;
+	}
+}
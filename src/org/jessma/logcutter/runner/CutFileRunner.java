@@ -24,63 +24,127 @@
 
 package org.jessma.logcutter.runner;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileFilter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.logging.log4j.Logger;
+import org.jessma.logcutter.global.AppConfig.Durability;
 import org.jessma.logcutter.global.Charset;
+import org.jessma.logcutter.global.CharsetCache;
 import org.jessma.logcutter.global.CutFilePath;
 import org.jessma.logcutter.global.FilePath;
+import org.jessma.logcutter.util.FileSync;
 import org.jessma.logcutter.util.LogUtil;
 
+import static org.jessma.logcutter.global.AppConfig.getDurability;
+import static org.jessma.logcutter.util.GeneralHelper.IS_WINDOWS_PLATFORM;
+import static org.jessma.logcutter.util.GeneralHelper.str2Long;
+
 
 public class CutFileRunner extends FileRunner
 {
 	private static final Logger logger			= LogUtil.getDefaultLogger();
 	
 	private static final long BYTE_UNIT_FACTOR	= 1024L;
-	private static final int FILE_BUFFER_SIZE	= 8192;
+	private static final int FILE_BUFFER_SIZE	= 1024 * 1024;
+	private static final int MAX_DELTA_PASSES	= 16;
+	private static final long LINES_PROBE_SIZE	= 4096L;
+	private static final long RETRY_BASE_DELAY	= 60L;
+	private static final long RETRY_MAX_DELAY	= 30L * 60;
+	private static final int MAX_RETRY_TIMES	= 12;
 
 	static
 	{
 		Charset.loadCharsets();
 	}
 
+	/** 搬移缓冲区（并行模式下多个线程同时截断文件，每个线程使用自己的缓冲区） */
+	private final ThreadLocal<ByteBuffer> shiftBuffers = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocateDirect(FILE_BUFFER_SIZE);
+		}
+	};
+
+	private final ConcurrentMap<String, Integer> retries	= new ConcurrentHashMap<String, Integer>();
+	private final AtomicLong retrySuccesses				= new AtomicLong();
+	private final AtomicLong retryGiveUps				= new AtomicLong();
+
 	public CutFileRunner(List<CutFilePath> files)
 	{
 		super(files);
 	}
 
 	@Override
-	protected FileFilter getFileFilter(final FilePath fp)
+	protected int getPriority()
 	{
-		return new FileFilterBase(fp.getName())
+		return 3;
+	}
+
+	@Override
+	protected FileFilterBase getFileFilter(final FilePath fp)
+	{
+		return new FileFilterBase(fp)
 		{
 			@Override
-			protected boolean doAccept(File file)
+			protected boolean doAccept(File file, BasicFileAttributes attrs)
 			{
-				return 	file.isFile() &&
-						file.length() >= ((CutFilePath)fp).getThreshold() * BYTE_UNIT_FACTOR;
+				return 	attrs.isRegularFile() &&
+						attrs.size() >= ((CutFilePath)fp).getThreshold() * BYTE_UNIT_FACTOR;
 			}
 		};
 	}
 
 	@Override
-	protected void process(File file, final FilePath fp)
+	protected void process(File file, BasicFileAttributes attrs, final FilePath fp)
 	{
-		FileLock lock = null;
+		if(!cut(file, fp))
+			scheduleRetry(file, fp, 0);
+	}
+
+	/** 截断文件，如果文件无法锁定则返回 false */
+	private boolean cut(File file, final FilePath fp)
+	{
+		RandomAccessFile raf	= null;
+		FileLock lock			= null;
+		boolean locked			= true;
 
 		try
 		{
-			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf = new RandomAccessFile(file, "rw");
 			FileChannel fc = raf.getChannel();
-			lock = fc.tryLock();
+
+			try
+			{
+				lock = fc.tryLock();
+			}
+			catch(OverlappingFileLockException e)
+			{
+				// 文件已被本进程的其它通道锁定（如：正在重试或被其它规则处理），与被其它进程锁定的情形一样处理
+			}
 
 			if(lock != null && lock.isValid())
 			{
@@ -91,18 +155,40 @@ public class CutFileRunner extends FileRunner
 				{
 					logger.info("cutting '{}'", file.getAbsolutePath());
 
-					raf.seek(FILE_LENGTH - cfp.getReserve() * BYTE_UNIT_FACTOR);
+					final boolean BY_BYTES	= cfp.getReserveTime() <= 0 && cfp.getReserveLines() <= 0;
+					final long RESERVE_SIZE	= BY_BYTES ? cfp.getReserve() * BYTE_UNIT_FACTOR : Math.min(FILE_LENGTH, LINES_PROBE_SIZE);
+
+					raf.seek(FILE_LENGTH - RESERVE_SIZE);
+
+					Charset cs = cfp.getCharset();
+
+					if(cs == null)
+						cs = CharsetCache.getCharset(file, raf);
+
+					final long RESERVE_POS	= getReservePosition(raf, cs, cfp, FILE_LENGTH);
+
+					if(RESERVE_POS > cs.getBomLength())
+					{
+						if(cfp.getArchivePath() != null)
+							archivePrefix(file, fc, cfp, RESERVE_POS);
 
-					Charset cs				= Charset.detechCharset(raf);
-					final long RESERVE_POS	= cs.scanNextLine(raf);
+						if(cfp.getMode() != CutFilePath.Mode.COLLAPSE || !collapseFile(file, fc, cs, RESERVE_POS))
+							cutFile(fc, cs, FILE_LENGTH, RESERVE_POS);
 
-					cutFile(fc, cs, FILE_LENGTH, RESERVE_POS);
+						if(cfp.getCharset() == null)
+							CharsetCache.update(file, raf, cs);
 
-					logger.info("OK !");
+						logger.info("OK !");
+					}
+					else
+						logger.info("nothing to cut !");
 				}
 			}
 			else
+			{
+				locked = false;
 				logger.warn("can not lock file: '{}'", file.getAbsolutePath());
+			}
 		}
 		catch(Exception e)
 		{
@@ -112,27 +198,373 @@ public class CutFileRunner extends FileRunner
 		{
 			if(lock != null)
 			{
-				try {lock.release(); lock.channel().close();}
+				try {lock.release();}
+				catch (IOException e) {}
+			}
+
+			if(raf != null)
+			{
+				try {raf.close();}
+				catch (IOException e) {}
+			}
+		}
+
+		return locked;
+	}
+
+	/** 把无法锁定的文件加入重试队列，按指数退避（有上限）的延时在执行器上重试，与常规检查周期无关 */
+	private void scheduleRetry(final File file, final FilePath fp, final int attempt)
+	{
+		final ScheduledExecutorService executor = getExecutor();
+
+		if(executor == null || executor.isShutdown())
+			return;
+
+		final String key = file.getAbsolutePath();
+
+		if(attempt == 0 && retries.putIfAbsent(key, attempt) != null)
+			return;
+
+		if(attempt >= MAX_RETRY_TIMES)
+		{
+			retries.remove(key);
+			retryGiveUps.incrementAndGet();
+			logger.warn("give up retrying '{}' after {} attempts", key, attempt);
+
+			return;
+		}
+
+		long delay = Math.min(RETRY_BASE_DELAY << attempt, RETRY_MAX_DELAY);
+
+		retries.put(key, attempt);
+		logger.info("retry '{}' in {} seconds (attempt: {})", key, delay, attempt + 1);
+
+		executor.schedule
+		(
+			new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					synchronized(CutFileRunner.this)
+					{
+						if(cut(file, fp))
+						{
+							retries.remove(key);
+							retrySuccesses.incrementAndGet();
+						}
+						else
+							scheduleRetry(file, fp, attempt + 1);
+					}
+				}
+			},
+			delay, TimeUnit.SECONDS
+		);
+	}
+
+	@Override
+	public String getStatistics()
+	{
+		return super.getStatistics() + String.format(", retry queue: %d, retry ok: %d, give up: %d", retries.size(), retrySuccesses.get(), retryGiveUps.get());
+	}
+
+	/** 把文件中将被截掉的前部内容 [0, RESERVE_POS) 以流的方式压缩到归档目录（单次顺序读取，不产生临时文件） */
+	private void archivePrefix(File file, FileChannel fc, CutFilePath cfp, final long RESERVE_POS) throws IOException
+	{
+		long begin			= System.nanoTime();
+		String entry		= String.format("%s_%013d", file.getName(), System.currentTimeMillis());
+		File target			= new File(cfp.getArchivePath(), entry + cfp.getArchiveFormat().getSuffix());
+		OutputStream out	= null;
+		boolean success		= false;
+
+		try
+		{
+			if(cfp.getArchiveFormat() == CutFilePath.ArchiveFormat.GZIP)
+				out = new GZIPOutputStream(new FileOutputStream(target), FILE_BUFFER_SIZE);
+			else
+			{
+				ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target), FILE_BUFFER_SIZE));
+				zip.putNextEntry(new ZipEntry(entry));
+				out = zip;
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+
+			for(long pos = 0; pos < RESERVE_POS; )
+			{
+				buffer.clear();
+				buffer.limit((int)Math.min(buffer.capacity(), RESERVE_POS - pos));
+
+				int r = fc.read(buffer, pos);
+
+				if(r < 0)
+					throw new EOFException(String.format("unexpected end of file at %d", pos));
+
+				out.write(buffer.array(), 0, r);
+				pos += r;
+			}
+
+			out.close();
+			out = null;
+
+			// 前部内容随后会从源文件移除，因此只要启用持久化就必须先把归档文件及其目录项刷新到磁盘
+			if(getDurability() != Durability.NONE)
+			{
+				FileSync.sync(target);
+				FileSync.syncDirectory(target.getAbsoluteFile().getParentFile());
+			}
+
+			success	= true;
+
+			logger.info(String.format("archive %d bytes to '%s' in %.1f ms", RESERVE_POS, target, (System.nanoTime() - begin) / 1000000.0));
+		}
+		finally
+		{
+			if(out != null)
+			{
+				try {out.close();}
 				catch (IOException e) {}
 			}
+
+			if(!success)
+				target.delete();
 		}
 	}
 
+	/** 获取保留内容的起始位置：按时间（reserve-time）、按行数（reserve-lines）或按大小（reserve） */
+	private long getReservePosition(RandomAccessFile raf, Charset cs, CutFilePath cfp, final long FILE_LENGTH) throws IOException
+	{
+		if(cfp.getReserveTime() > 0)
+		{
+			long cutoff					= System.currentTimeMillis() - cfp.getReserveTime();
+			TimestampSearcher searcher	= new TimestampSearcher(raf, cs, cfp.getTimestampPattern(), FILE_LENGTH);
+			long pos					= searcher.search(cutoff);
+
+			logger.debug("reserve position {} found by {} timestamp probes", pos, searcher.getProbes());
+
+			return pos;
+		}
+
+		if(cfp.getReserveLines() > 0)
+			return cs.scanLastLines(raf, cfp.getReserveLines());
+
+		return cs.scanNextLine(raf);
+	}
+
+	/** 截断文件：先在临界区外搬移保留内容，再循环补搬搬移期间追加的内容，直到文件长度稳定后立即截断 */
 	private void cutFile(FileChannel fc, Charset cs, final long FILE_LENGTH, final long RESERVE_POS) throws IOException
 	{
-		ByteBuffer buffer = ByteBuffer.allocate(FILE_BUFFER_SIZE);
-		buffer.put(cs.getBom());
-		fc.position(0);
+		final int BOM_LENGTH	= cs.getBomLength();
+		long begin				= System.nanoTime();
+
+		fc.write(ByteBuffer.wrap(cs.getBom()), 0);
+
+		long tr = shift(fc, RESERVE_POS, FILE_LENGTH, BOM_LENGTH);
+
+		logShiftThroughput(tr, System.nanoTime() - begin);
+
+		// 截断前把搬移的内容刷新到磁盘（在临界区外执行，避免延长文件增长检测与截断之间的时间窗口）
+		if(getDurability() != Durability.NONE)
+			FileSync.force(fc, false);
+
+		long length		= FILE_LENGTH;
+		long delta		= 0;
+		long stallBegin	= 0;
+		int passes		= 0;
+
+		while(true)
+		{
+			stallBegin		= System.nanoTime();
+			long current	= fc.size();
+
+			if(current <= length)
+				break;
+
+			if(++passes > MAX_DELTA_PASSES)
+			{
+				logger.warn("file keeps growing after {} delta passes, bytes appended during truncation may be lost", MAX_DELTA_PASSES);
+				break;
+			}
+
+			delta	+= shift(fc, length, current, BOM_LENGTH + (length - RESERVE_POS));
+			length	 = current;
+		}
+
+		long reserve = BOM_LENGTH + (length - RESERVE_POS);
+
+		if(getDurability() == Durability.STRICT && delta > 0)
+			FileSync.force(fc, false);
+
+		fc.truncate(reserve);
+
+		if(getDurability() == Durability.STRICT)
+			FileSync.force(fc, true);
+
+		logger.info(String.format("delta %d bytes in %d passes, stall %.3f ms", delta, passes, (System.nanoTime() - stallBegin) / 1000000.0));
+	}
+
+	/** 通过 fallocate(FALLOC_FL_COLLAPSE_RANGE) 移除文件前部按块对齐的内容，剩余的不完整首行用空白字符覆盖，
+	 * 
+	 * @return	: 文件系统或平台不支持时返回 false（由调用者执行 {@link #cutFile} ）
+	 * 
+	 */
+	private boolean collapseFile(File file, FileChannel fc, Charset cs, final long RESERVE_POS) throws IOException
+	{
+		if(IS_WINDOWS_PLATFORM)
+			return false;
+
+		String path		= file.getAbsolutePath();
+		long blockSize	= str2Long(execute("stat", "-f", "-c", "%S", path), -1);
+
+		if(blockSize <= 0)
+			return false;
+
+		final int BOM_LEN	= cs.getBomLength();
+		long aligned		= RESERVE_POS / blockSize * blockSize;
+
+		// 剩余的首行不足以容纳 BOM + 换行符时少移除一个块，保证 BOM 不丢失
+		if((BOM_LEN > 0 || RESERVE_POS > aligned) && RESERVE_POS - aligned < BOM_LEN + cs.getLineFeed().length)
+			aligned -= blockSize;
+
+		final long COLLAPSE_LEN = aligned;
+
+		if(COLLAPSE_LEN <= 0)
+			return false;
+
+		long begin = System.nanoTime();
+
+		if(execute("fallocate", "--collapse-range", "--offset", "0", "--length", String.valueOf(COLLAPSE_LEN), path) == null)
+		{
+			logger.warn("collapse range not supported, fall back to copy mode");
+			return false;
+		}
+
+		byte[] fill = getFillBytes(cs, (int)(RESERVE_POS - COLLAPSE_LEN));
+		fc.write(ByteBuffer.wrap(fill), 0);
+
+		if(getDurability() == Durability.STRICT)
+			FileSync.force(fc, true);
+
+		logger.info(String.format("collapse %d bytes in %.1f ms, fill %d bytes", COLLAPSE_LEN, (System.nanoTime() - begin) / 1000000.0, fill.length));
+
+		return true;
+	}
+
+	/** 生成覆盖不完整首行的内容：BOM + 空格 + 换行符 */
+	private static byte[] getFillBytes(Charset cs, int length)
+	{
+		byte[] bom		= cs.getBom();
+		byte[] lf		= cs.getLineFeed();
+		byte[] space	= lf.clone();
+		byte[] fill		= new byte[length];
+
+		for(int i = 0; i < space.length; i++)
+		{
+			if(space[i] == '\n')
+				space[i] = ' ';
+		}
+
+		int pos = 0;
+
+		if(length >= bom.length + lf.length)
+		{
+			System.arraycopy(bom, 0, fill, 0, bom.length);
+			pos = bom.length;
+		}
+
+		for(; pos + space.length <= length - lf.length; pos += space.length)
+			System.arraycopy(space, 0, fill, pos, space.length);
+
+		for(; pos < length - lf.length; ++pos)
+			fill[pos] = ' ';
+
+		if(length >= lf.length)
+			System.arraycopy(lf, 0, fill, length - lf.length, lf.length);
+
+		return fill;
+	}
+
+	/** 执行外部命令，成功时返回命令的标准输出，失败时返回 null */
+	private static String execute(String ... command)
+	{
+		Process proc = null;
+
+		try
+		{
+			proc = new ProcessBuilder(command).redirectErrorStream(true).start();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+			StringBuilder sb = new StringBuilder();
+
+			try
+			{
+				for(String line = null; (line = reader.readLine()) != null; )
+					sb.append(line);
+			}
+			finally
+			{
+				reader.close();
+			}
+
+			if(proc.waitFor() == 0)
+				return sb.toString().trim();
+
+			logger.debug("'{}' -> {}", command[0], sb);
+		}
+		catch(Exception e)
+		{
+			logger.debug("'{}' -> {}", command[0], e);
+		}
+		finally
+		{
+			if(proc != null)
+				proc.destroy();
+		}
+
+		return null;
+	}
+
+	/** 把 [from, to) 区间的内容搬移到 dest 位置（dest 必须小于 from），无法读取完整的区间时抛出 IOException */
+	private long shift(FileChannel fc, final long from, final long to, final long dest) throws IOException
+	{
+		ByteBuffer buffer = getShiftBuffer();
 
 		long tr = 0;
-		for(int r = 0; (r = fc.read(buffer, RESERVE_POS + tr)) > 0; tr += r)
+		while(from + tr < to)
 		{
-			buffer.flip();
-			fc.write(buffer);
 			buffer.clear();
+			buffer.limit((int)Math.min(buffer.capacity(), to - from - tr));
+
+			int r = fc.read(buffer, from + tr);
+
+			// 文件被其它进程截短等情况：未能完整搬移时不能截断文件，否则会丢失保留的内容
+			if(r <= 0)
+				throw new IOException(String.format("unexpected end of file at %d, shifted %d of %d bytes", from + tr, tr, to - from));
+
+			buffer.flip();
+
+			for(long pos = dest + tr; buffer.hasRemaining(); )
+				pos += fc.write(buffer, pos);
+
+			tr += r;
 		}
 
-		long reserve = cs.getBomLength() + (FILE_LENGTH - RESERVE_POS);
-		fc.truncate(reserve);
+		return tr;
+	}
+
+	/** 获取数据搬移缓冲区（直接缓冲区，大小为常见文件系统块大小的整数倍，由当前线程重复使用） */
+	private ByteBuffer getShiftBuffer()
+	{
+		ByteBuffer buffer = shiftBuffers.get();
+		buffer.clear();
+
+		return buffer;
+	}
+
+	private static void logShiftThroughput(long bytes, long nanos)
+	{
+		double millis	= nanos / 1000000.0;
+		double mbps		= millis > 0 ? (bytes / (1024.0 * 1024.0)) / (millis / 1000.0) : 0;
+
+		logger.info(String.format("shift %d bytes in %.1f ms (%.1f MB/s)", bytes, millis, mbps));
 	}
 }
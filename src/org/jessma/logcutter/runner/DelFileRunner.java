@@ -25,14 +25,13 @@
 package org.jessma.logcutter.runner;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.util.Date;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 import org.jessma.logcutter.global.DelFilePath;
 import org.jessma.logcutter.global.FilePath;
+import org.jessma.logcutter.util.ControlBlock;
 import org.jessma.logcutter.util.LogUtil;
 
 public class DelFileRunner extends FileRunner
@@ -45,24 +44,32 @@ public class DelFileRunner extends FileRunner
 	}
 
 	@Override
-	protected FileFilter getFileFilter(final FilePath fp)
+	protected int getPriority()
 	{
-		return new FileFilterBase(fp.getName())
+		return 1;
+	}
+
+	@Override
+	protected long getExpire(FilePath fp)
+	{
+		return ((DelFilePath)fp).getExpire();
+	}
+
+	@Override
+	protected FileFilterBase getFileFilter(final FilePath fp)
+	{
+		return new FileFilterBase(fp)
 		{
 			@Override
-			protected boolean doAccept(File file)
+			protected boolean doAccept(File file, BasicFileAttributes attrs)
 			{
-				long now	= new Date().getTime();
-				long last	= file.lastModified();
-				long days	= TimeUnit.MILLISECONDS.toDays(now - last);
-
-				return days >= ((DelFilePath)fp).getExpire();
+				return !ControlBlock.isControlFile(file) && isExpired(file, attrs, fp, ((DelFilePath)fp).getExpire());
 			}
 		};
 	}
 
 	@Override
-	protected void process(File file, final FilePath fp)
+	protected void process(File file, BasicFileAttributes attrs, final FilePath fp)
 	{
 		try
 		{
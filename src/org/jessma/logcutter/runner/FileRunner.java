@@ -26,20 +26,64 @@ package org.jessma.logcutter.runner;
 
 
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.jessma.logcutter.global.DatePattern;
 import org.jessma.logcutter.global.FilePath;
 import org.jessma.logcutter.util.GeneralHelper;
 import org.jessma.logcutter.util.LogUtil;
 
+import static org.jessma.logcutter.global.AppConfig.getParallelism;
+import static org.jessma.logcutter.global.AppConfig.getScanQueueSize;
+import static org.jessma.logcutter.global.AppConfig.isScanJournal;
+
 public abstract class FileRunner implements Runnable
 {
-	private static final Logger logger = LogUtil.getDefaultLogger();
+	private static final Logger logger		= LogUtil.getDefaultLogger();
+
+	private static final long OFFER_TIMEOUT	= 100L;
+	private static final long RACY_MILLIS	= 2000L;
+	private static final Object[] END		= new Object[0];
+
+	/** 线程上下文中标识当前规则的键（日志格式中用 %X{rule} 输出） */
+	public static final String RULE_KEY		= "rule";
+
+	private static ForkJoinPool pool;
 	
 	private boolean running;
+	private ScheduledExecutorService executor;
+
+	/** 本轮 / 上一轮检查扫描的目录项数和文件状态查询（stat / access）次数 */
+	private final AtomicLong entries		= new AtomicLong();
+	private final AtomicLong statCalls	= new AtomicLong();
+	private final AtomicLong unchanged	= new AtomicLong();
+	private long lastEntries;
+	private long lastStatCalls;
+
+	private final RootExpander expander = new RootExpander();
+
 	protected final List<? extends FilePath> files;
 
 	public FileRunner(List<? extends FilePath> files)
@@ -47,77 +91,605 @@ public abstract class FileRunner implements Runnable
 		this.files = files;
 	}
 
-	abstract protected FileFilter getFileFilter(final FilePath fp);
-	abstract protected void process(File file, final FilePath fp);
+	abstract protected FileFilterBase getFileFilter(final FilePath fp);
+	abstract protected void process(File file, BasicFileAttributes attrs, final FilePath fp);
+
+	/** 获取执行器优先级（值越小优先级越高）：共享扫描时，同一文件通过多个执行器的过滤条件时只交给优先级最高的执行器处理 */
+	protected int getPriority()
+	{
+		return Integer.MAX_VALUE;
+	}
+
+	/** 获取按文件最后修改时间判断到期的天数（文件在最后修改时间之后该天数到期），
+	 * 过滤条件不只取决于最后修改时间的执行器返回 -1（默认），不使用扫描日志
+	 */
+	protected long getExpire(FilePath fp)
+	{
+		return -1;
+	}
+
+	/** 一轮检查的所有文件处理完毕后调用（如：提交批量操作），默认不做任何事 */
+	protected void complete()
+	{
+
+	}
 
 	public boolean isRunning()
 	{
 		return running;
 	}
 
+	/** 获取执行器，用于调度常规检查周期之外的任务（如：重试） */
+	public ScheduledExecutorService getExecutor()
+	{
+		return executor;
+	}
+
+	/** 设置执行器，用于调度常规检查周期之外的任务（如：重试） */
+	public void setExecutor(ScheduledExecutorService executor)
+	{
+		this.executor = executor;
+	}
+
+	/** 获取执行器的运行统计信息 */
+	public String getStatistics()
+	{
+		return String.format("last run: %d entries, %d stat calls", lastEntries, lastStatCalls);
+	}
+
 	@Override
 	synchronized public void run()
 	{
 		markStart();
 
+		final List<FilePath> fps	= new ArrayList<FilePath>();
+		final List<File> roots		= new ArrayList<File>();
+
 		for(FilePath fp : files)
 		{
 			try
 			{
-    			File path = new File(fp.getPath());
+				for(File root : expander.getRoots(fp))
+				{
+					fps.add(fp);
+					roots.add(root);
+				}
 
-    			if(path.isDirectory())
-    			{
-    				FileFilter ff	= getFileFilter(fp);
-    				File[] fs		= path.listFiles(ff);
+				statCalls.addAndGet(expander.takeStatCalls());
+			}
+			catch(Exception e)
+			{
+				LogUtil.exception(e, toString(), Level.ERROR, true);
+			}
+		}
+
+		if(getParallelism() > 0)
+		{
+			// 并行模式：每个扫描目录作为一个 fork/join 任务，由工作窃取线程池执行
+			getPool().invoke(new RecursiveAction()
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute()
+				{
+					List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(roots.size());
+
+					for(int i = 0; i < roots.size(); i++)
+					{
+						final File root		= roots.get(i);
+						final FilePath fp	= fps.get(i);
+
+						tasks.add(new RecursiveAction()
+						{
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							protected void compute()
+							{
+								scanRoot(root, fp);
+							}
+						});
+					}
 
-    				for(File f : fs)
-    					process(f, fp);
-    			}
+					invokeAll(tasks);
+				}
+			});
+		}
+		else
+		{
+			for(int i = 0; i < roots.size(); i++)
+				scanRoot(roots.get(i), fps.get(i));
+		}
+
+		try
+		{
+			complete();
+		}
+		catch(Exception e)
+		{
+			LogUtil.exception(e, toString(), Level.ERROR, true);
+		}
+
+		if(isScanJournal())
+		{
+			try
+			{
+				ScanJournal.getInstance().save();
 			}
 			catch(Exception e)
 			{
 				LogUtil.exception(e, toString(), Level.ERROR, true);
 			}
+
+			logger.info("scanned {} entries with {} stat calls, {} directories unchanged", entries.get(), statCalls.get(), unchanged.get());
 		}
+		else
+			logger.info("scanned {} entries with {} stat calls", entries.get(), statCalls.get());
 
 		markEnd();
 	}
 
-	private void markStart()
+	/** 扫描并处理一个目录，扫描期间的日志通过线程上下文 {@link #RULE_KEY} 标识所属的规则 */
+	private void scanRoot(File root, FilePath fp)
 	{
-		logger.info(String.format("- - - - - - - -> start %13s <- - - - - - - -", this.getClass().getSimpleName()));
-		running = true;
+		String rule = ThreadContext.get(RULE_KEY);
+
+		ThreadContext.put(RULE_KEY, String.format("{%s}", fp));
+
+		try
+		{
+			Path path = root.toPath();
+
+			statCalls.incrementAndGet();
+
+			if(Files.isDirectory(path))
+			{
+				int count;
+				long begin = System.nanoTime();
+
+				if(getScanQueueSize() > 0)
+					count = scanStreaming(path, fp, getScanQueueSize());
+				else
+					count = scanSnapshot(path, fp);
+
+				if(count > 0)
+					logger.info(String.format("%d files processed in '%s' in %.1f ms", count, root, (System.nanoTime() - begin) / 1000000.0));
+			}
+		}
+		catch(Exception e)
+		{
+			LogUtil.exception(e, toString(), Level.ERROR, true);
+		}
+		finally
+		{
+			if(rule != null)
+				ThreadContext.put(RULE_KEY, rule);
+			else
+				ThreadContext.remove(RULE_KEY);
+		}
 	}
 
-	private void markEnd()
+	/** 获取并行扫描的 fork/join 线程池（所有执行器共享） */
+	private static synchronized ForkJoinPool getPool()
 	{
-		logger.info(String.format("- - - - - - - ->   end %13s <- - - - - - - -", this.getClass().getSimpleName()));
-		running = false;
+		if(pool == null)
+			pool = new ForkJoinPool(getParallelism());
+
+		return pool;
 	}
 
-	protected abstract static class FileFilterBase extends GeneralHelper.FileNameFileFilter
+	/** 目录项处理器 */
+	private static interface EntryHandler
+	{
+		/** 处理通过过滤的文件，返回 false 时停止扫描 */
+		boolean handle(File file, BasicFileAttributes attrs) throws InterruptedException;
+	}
+
+	/** 快照扫描：先扫描完整个目录，再逐个处理通过过滤的文件 */
+	private int scanSnapshot(Path path, final FilePath fp) throws Exception
+	{
+		final List<File> fs					= new ArrayList<File>();
+		final List<BasicFileAttributes> as	= new ArrayList<BasicFileAttributes>();
+
+		scan(path, fp, getFileFilter(fp), new EntryHandler()
+		{
+			@Override
+			public boolean handle(File file, BasicFileAttributes attrs)
+			{
+				fs.add(file);
+				as.add(attrs);
+
+				return true;
+			}
+		});
+
+		for(int i = 0; i < fs.size(); i++)
+			process(fs.get(i), as.get(i), fp);
+
+		return fs.size();
+	}
+
+	/** 流式扫描：扫描线程把通过过滤的文件放入有界队列，当前线程边扫描边处理，队列满时扫描线程等待（背压），内存占用与目录大小无关 */
+	private int scanStreaming(final Path path, final FilePath fp, int queueSize) throws Exception
+	{
+		final BlockingQueue<Object[]> queue	= new ArrayBlockingQueue<Object[]>(queueSize);
+		final Exception[] error				= new Exception[1];
+		final boolean[] cancelled			= new boolean[1];
+		final String rule					= ThreadContext.get(RULE_KEY);
+		int count							= 0;
+
+		Thread scanner = new Thread(String.format("%s-scanner", getClass().getSimpleName()))
+		{
+			@Override
+			public void run()
+			{
+				if(rule != null)
+					ThreadContext.put(RULE_KEY, rule);
+
+				try
+				{
+					scan(path, fp, getFileFilter(fp), new EntryHandler()
+					{
+						@Override
+						public boolean handle(File file, BasicFileAttributes attrs) throws InterruptedException
+						{
+							return offer(queue, new Object[] {file, attrs}, cancelled);
+						}
+					});
+				}
+				catch(Exception e)
+				{
+					error[0] = e;
+				}
+				finally
+				{
+					try {offer(queue, END, cancelled);}
+					catch (InterruptedException e) {}
+				}
+			}
+		};
+
+		scanner.setDaemon(true);
+		scanner.start();
+
+		try
+		{
+			for(Object[] item = queue.take(); item != END; item = queue.take(), ++count)
+				process((File)item[0], (BasicFileAttributes)item[1], fp);
+		}
+		finally
+		{
+			synchronized(cancelled)
+			{
+				cancelled[0] = true;
+			}
+
+			scanner.join();
+		}
+
+		if(error[0] != null)
+			throw error[0];
+
+		return count;
+	}
+
+	/** 把 item 放入队列，队列满时等待，直到放入成功或扫描被取消（返回 false） */
+	private static boolean offer(BlockingQueue<Object[]> queue, Object[] item, boolean[] cancelled) throws InterruptedException
 	{
-		public FileFilterBase(String name)
+		while(!queue.offer(item, OFFER_TIMEOUT, TimeUnit.MILLISECONDS))
 		{
-			super(name);
+			synchronized(cancelled)
+			{
+				if(cancelled[0])
+					return false;
+			}
 		}
 
-		@Override
-		public boolean accept(File file)
+		return true;
+	}
+
+	/** 扫描目录：设置了文件名日期模式时按文件名日期扫描；启用扫描日志时，目录没有变化则只重新检查已到期的文件，并记录本次扫描结果 */
+	private void scan(Path path, final FilePath fp, final FileFilterBase ff, final EntryHandler handler) throws Exception
+	{
+		long expire = getExpire(fp);
+
+		if(expire >= 0 && fp.getDatePattern() != null)
+		{
+			scanByDate(path, fp, ff, handler, expire);
+			return;
+		}
+
+		if(expire < 0 || !isScanJournal())
 		{
-			if(super.accept(file))
+			scanDirectory(path, fp, ff, handler, null);
+			return;
+		}
+
+		statCalls.incrementAndGet();
+
+		ScanJournal journal				= ScanJournal.getInstance();
+		String key						= String.format("%s\t%s\t%s", getClass().getSimpleName(), fp, path.toAbsolutePath());
+		FileTime mtime					= Files.getLastModifiedTime(path);
+		ScanJournal.Dir dir				= journal.get(key);
+		ScanJournal.Recorder recorder	= new ScanJournal.Recorder(expire);
+		boolean complete;
+
+		if(dir != null && dir.isValid(mtime.to(TimeUnit.NANOSECONDS), expire))
+		{
+			unchanged.incrementAndGet();
+
+			if(dir.nextDue > System.currentTimeMillis())
 			{
-				if(file.canWrite())
-					return doAccept(file);
-				else
-					logger.warn("'{}' can not be written", file.getAbsolutePath());
+				logger.debug("'{}' unchanged ({} entries), next expiry at {}", path, dir.children, new Date(dir.nextDue));
+				return;
 			}
 
-			return false;
+			complete = rescanDue(path, dir, ff, handler, recorder);
+		}
+		else
+			complete = scanDirectory(path, fp, ff, handler, recorder);
+
+		// 最近刚修改过的目录在同一时间精度内可能继续被修改而最后修改时间不变，不记录
+		if(complete && !recorder.isHandled() && System.currentTimeMillis() - mtime.toMillis() > RACY_MILLIS)
+			journal.put(key, recorder.build(mtime.to(TimeUnit.NANOSECONDS)));
+		else
+			journal.remove(key);
+	}
+
+	/** 按文件名日期扫描：不读取文件属性，按文件名日期从早到晚排序后逐个处理，遇到第一个未过期的文件即停止，
+	 * 只为已过期的文件读取属性（文件名不包含日期的文件按最后修改时间判断），返回 false 表示扫描未完成
+	 */
+	private boolean scanByDate(Path path, FilePath fp, FileFilterBase ff, EntryHandler handler, long expire) throws Exception
+	{
+		DatePattern dp			= fp.getDatePattern();
+		List<Object[]> dated	= new ArrayList<Object[]>();
+
+		DirectoryStream<Path> ds = Files.newDirectoryStream(path);
+
+		try
+		{
+			for(Path p : ds)
+			{
+				entries.incrementAndGet();
+
+				File f = p.toFile();
+
+				if(!ff.accept(f))
+					continue;
+
+				long date = dp.parse(f.getName());
+
+				if(date >= 0)
+				{
+					dated.add(new Object[] {p, date});
+					continue;
+				}
+
+				BasicFileAttributes attrs = readAttributes(p);
+
+				if(attrs != null && !acceptEntry(f, attrs, ff, handler, null))
+					return false;
+			}
 		}
+		finally
+		{
+			ds.close();
+		}
+
+		Collections.sort(dated, new Comparator<Object[]>()
+		{
+			@Override
+			public int compare(Object[] o1, Object[] o2)
+			{
+				return Long.compare((Long)o1[1], (Long)o2[1]);
+			}
+		});
+
+		long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(expire);
+
+		for(int i = 0; i < dated.size(); i++)
+		{
+			Path p = (Path)dated.get(i)[0];
+
+			if((Long)dated.get(i)[1] > cutoff)
+			{
+				logger.debug("{} entries not expired, stop at '{}'", dated.size() - i, p);
+				break;
+			}
 
-		protected abstract boolean doAccept(File file);
+			BasicFileAttributes attrs = readAttributes(p);
+
+			if(attrs != null && !acceptEntry(p.toFile(), attrs, ff, handler, null))
+				return false;
+		}
+
+		return true;
+	}
+
+	/** 目录没有变化时只重新读取已到期的文件的属性并交给过滤器，返回 false 表示检查未完成 */
+	private boolean rescanDue(Path path, ScanJournal.Dir dir, FileFilterBase ff, EntryHandler handler, ScanJournal.Recorder recorder) throws Exception
+	{
+		long now = System.currentTimeMillis();
+
+		for(ScanJournal.Entry e : dir.entries)
+		{
+			if(e.due > now)
+			{
+				recorder.keep(e);
+				continue;
+			}
+
+			Path p						= path.resolve(e.name);
+			BasicFileAttributes attrs	= readAttributes(p);
+
+			if(attrs == null || !acceptEntry(p.toFile(), attrs, ff, handler, recorder))
+				return false;
+		}
+
+		recorder.setChildren(dir.children);
+
+		return true;
+	}
+
+	/** 扫描目录：先按文件名过滤（不访问文件系统），再为每个候选文件读取一次属性并传给过滤器和 process()，
+	 * 最后只对通过过滤的文件检查是否可写。启用预取时（如：网络文件系统）并发读取候选文件的属性，并按目录顺序交给过滤器
+	 */
+	private boolean scanDirectory(Path path, final FilePath fp, final FileFilterBase ff, final EntryHandler handler, final ScanJournal.Recorder recorder) throws Exception
+	{
+		AttributePrefetcher prefetcher = null;
+
+		if(AttributePrefetcher.isEnabled(path, fp))
+		{
+			prefetcher = AttributePrefetcher.open(path, new AttributePrefetcher.Consumer()
+			{
+				@Override
+				public boolean accept(Path p, BasicFileAttributes attrs) throws Exception
+				{
+					statCalls.incrementAndGet();
+
+					return attrs == null || acceptEntry(p.toFile(), attrs, ff, handler, recorder);
+				}
+			});
+		}
+
+		DirectoryStream<Path> ds	= Files.newDirectoryStream(path);
+		int children				= 0;
+
+		try
+		{
+			for(Path p : ds)
+			{
+				entries.incrementAndGet();
+				++children;
+
+				File f = p.toFile();
+
+				if(!ff.accept(f))
+					continue;
+
+				if(prefetcher != null)
+				{
+					if(!prefetcher.add(p))
+						return false;
+
+					continue;
+				}
+
+				BasicFileAttributes attrs = readAttributes(p);
+
+				if(attrs != null && !acceptEntry(f, attrs, ff, handler, recorder))
+					return false;
+			}
+
+			if(prefetcher != null && !prefetcher.finish())
+				return false;
+
+			if(recorder != null)
+				recorder.setChildren(children);
+
+			return true;
+		}
+		finally
+		{
+			ds.close();
+		}
+	}
+
+	/** 按文件属性过滤并检查是否可写，通过后交给 handler，返回 false 时停止扫描（recorder 不为 null 时记录到扫描日志） */
+	private boolean acceptEntry(File f, BasicFileAttributes attrs, FileFilterBase ff, EntryHandler handler, ScanJournal.Recorder recorder) throws InterruptedException
+	{
+		if(recorder != null)
+			recorder.add(f, attrs);
+
+		if(!ff.accept(f, attrs))
+			return true;
+
+		if(!isWritable(f))
+		{
+			logger.warn("'{}' can not be written", f.getAbsolutePath());
+			return true;
+		}
+
+		if(recorder != null)
+			recorder.setHandled();
+
+		return handler.handle(f, attrs);
+	}
+
+	/** 读取文件属性（计入文件状态查询次数），文件已不存在时返回 null */
+	BasicFileAttributes readAttributes(Path path, LinkOption ... options)
+	{
+		statCalls.incrementAndGet();
+
+		try
+		{
+			return Files.readAttributes(path, BasicFileAttributes.class, options);
+		}
+		catch(IOException e)
+		{
+			return null;
+		}
+	}
+
+	/** 判断文件是否已过期（超过 expire 天）：设置了文件名日期模式并且文件名包含日期时按文件名中的日期计算，否则按最后修改时间计算，
+	 * 文件夹年龄为 DEEP 时取文件夹中最新的最后修改时间
+	 */
+	protected boolean isExpired(File file, BasicFileAttributes attrs, FilePath fp, long expire)
+	{
+		long cutoff	= System.currentTimeMillis() - TimeUnit.DAYS.toMillis(expire);
+		long date	= fp.getDatePattern() != null ? fp.getDatePattern().parse(file.getName()) : -1;
+
+		if(date < 0)
+		{
+			date = attrs.lastModifiedTime().toMillis();
+
+			if(date <= cutoff && attrs.isDirectory() && fp.getAgeMode() == FilePath.AgeMode.DEEP)
+				date = SubtreeAge.getLastModified(this, file, date, cutoff);
+		}
+
+		return date <= cutoff;
+	}
+
+	/** 判断文件是否可写（access 调用，同样计入文件状态查询次数） */
+	private boolean isWritable(File file)
+	{
+		statCalls.incrementAndGet();
+
+		return file.canWrite();
+	}
+
+	void markStart()
+	{
+		logger.info(String.format("- - - - - - - -> start %13s <- - - - - - - -", this.getClass().getSimpleName()));
+		running		= true;
+		entries.set(0);
+		statCalls.set(0);
+		unchanged.set(0);
+	}
+
+	void markEnd()
+	{
+		logger.info(String.format("- - - - - - - ->   end %13s <- - - - - - - -", this.getClass().getSimpleName()));
+		running			= false;
+		lastEntries		= entries.get();
+		lastStatCalls	= statCalls.get();
+	}
+
+	protected abstract static class FileFilterBase extends GeneralHelper.FileNameFileFilter
+	{
+		public FileFilterBase(FilePath fp)
+		{
+			super(fp.getNameMatcher());
+		}
+
+		/** 按文件属性过滤（调用者已按文件名过滤），attrs 为扫描时读取的文件属性 */
+		public boolean accept(File file, BasicFileAttributes attrs)
+		{
+			return doAccept(file, attrs);
+		}
+
+		protected abstract boolean doAccept(File file, BasicFileAttributes attrs);
 	}
 	
 	protected static boolean deleteFile(File file)
@@ -129,8 +701,54 @@ public abstract class FileRunner implements Runnable
 		{
 			File[] files = file.listFiles();
 			
-			for(File f : files)
-				deleteFile(f);
+			// 并行模式下（在 fork/join 线程池中执行时）每个子目录作为一个子任务删除
+			if(ForkJoinTask.inForkJoinPool() && files.length > 1)
+			{
+				final String rule				= ThreadContext.get(RULE_KEY);
+				List<RecursiveAction> tasks		= new ArrayList<RecursiveAction>(files.length);
+
+				for(final File f : files)
+				{
+					if(!f.isDirectory())
+					{
+						deleteFile(f);
+						continue;
+					}
+
+					tasks.add(new RecursiveAction()
+					{
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected void compute()
+						{
+							String prev = ThreadContext.get(RULE_KEY);
+
+							if(rule != null)
+								ThreadContext.put(RULE_KEY, rule);
+
+							try
+							{
+								deleteFile(f);
+							}
+							finally
+							{
+								if(prev != null)
+									ThreadContext.put(RULE_KEY, prev);
+								else
+									ThreadContext.remove(RULE_KEY);
+							}
+						}
+					});
+				}
+
+				ForkJoinTask.invokeAll(tasks);
+			}
+			else
+			{
+				for(File f : files)
+					deleteFile(f);
+			}
 		}
 		
 		boolean result	= file.delete();
@@ -0,0 +1,342 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.jessma.logcutter.global.FilePath;
+import org.jessma.logcutter.runner.FileRunner.FileFilterBase;
+import org.jessma.logcutter.util.LogUtil;
+
+import static org.jessma.logcutter.global.AppConfig.getWatchDelay;
+
+/** 文件监视器：通过 {@link WatchService} 监视所有执行器的扫描目录，文件创建或修改后（合并 watch-delay 秒内的事件）
+ * 只对该文件重新执行过滤和处理，不扫描整个目录。同一文件匹配多条规则时，只交给优先级最高的执行器处理。
+ * 事件丢失（OVERFLOW）时执行该目录所属执行器的完整检查；通配目录中新增的子目录在下一次 {@link #refresh()} 后才被监视
+ */
+public class FileWatcher implements Runnable
+{
+	private static final Logger logger = LogUtil.getDefaultLogger();
+
+	private final List<FileRunner> runners;
+	private final ScheduledExecutorService executor;
+	private final RootExpander expander = new RootExpander();
+	private final WatchService service;
+
+	/** 监视目录 -> 规则（按执行器优先级排序） */
+	private final Map<Path, List<Rule>> rules	= new ConcurrentHashMap<Path, List<Rule>>();
+	/** 等待处理的文件（合并事件） */
+	private final Set<Path> pending				= Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+	private final Map<Path, WatchKey> keys		= new HashMap<Path, WatchKey>();
+
+	private final AtomicLong events			= new AtomicLong();
+	private final AtomicLong evaluations	= new AtomicLong();
+	private final AtomicLong overflows		= new AtomicLong();
+
+	private Thread thread;
+
+	/** 监视规则 */
+	private static class Rule
+	{
+		final FileRunner runner;
+		final FilePath fp;
+		final FileFilterBase filter;
+
+		Rule(FileRunner runner, FilePath fp, FileFilterBase filter)
+		{
+			this.runner	= runner;
+			this.fp		= fp;
+			this.filter	= filter;
+		}
+	}
+
+	public FileWatcher(List<FileRunner> runners, ScheduledExecutorService executor) throws IOException
+	{
+		this.runners	= new ArrayList<FileRunner>(runners);
+		this.executor	= executor;
+		this.service	= FileSystems.getDefault().newWatchService();
+
+		// 稳定排序：优先级相同的执行器保持原来的顺序
+		Collections.sort(this.runners, new Comparator<FileRunner>()
+		{
+			@Override
+			public int compare(FileRunner r1, FileRunner r2)
+			{
+				return Integer.compare(r1.getPriority(), r2.getPriority());
+			}
+		});
+	}
+
+	/** 注册所有扫描目录并启动监视线程 */
+	public synchronized void start()
+	{
+		refresh();
+
+		thread = new Thread(this, getClass().getSimpleName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** 停止监视 */
+	public void close()
+	{
+		try {service.close();}
+		catch (IOException e) {}
+	}
+
+	/** 重新展开扫描目录（如：通配目录中新增了子目录），注册新的目录并取消已不存在的目录 */
+	public synchronized void refresh()
+	{
+		Map<Path, List<Rule>> plan = new HashMap<Path, List<Rule>>();
+
+		for(FileRunner runner : runners)
+		{
+			for(FilePath fp : runner.files)
+			{
+				try
+				{
+					for(File root : expander.getRoots(fp))
+					{
+						Path dir			= root.toPath().toAbsolutePath().normalize();
+						List<Rule> list		= plan.get(dir);
+
+						if(list == null)
+						{
+							list = new ArrayList<Rule>();
+							plan.put(dir, list);
+						}
+
+						list.add(new Rule(runner, fp, runner.getFileFilter(fp)));
+					}
+				}
+				catch(Exception e)
+				{
+					LogUtil.exception(e, toString(), Level.ERROR, true);
+				}
+			}
+		}
+
+		expander.takeStatCalls();
+
+		for(Map.Entry<Path, List<Rule>> e : plan.entrySet())
+		{
+			Path dir = e.getKey();
+
+			if(!keys.containsKey(dir) && Files.isDirectory(dir))
+			{
+				try
+				{
+					keys.put(dir, dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+				}
+				catch(IOException ex)
+				{
+					logger.warn("can not watch '{}' -> {}", dir, ex.toString());
+					continue;
+				}
+			}
+
+			rules.put(dir, e.getValue());
+		}
+
+		for(Path dir : new ArrayList<Path>(keys.keySet()))
+		{
+			if(!plan.containsKey(dir) || !keys.get(dir).isValid())
+			{
+				keys.remove(dir).cancel();
+				rules.remove(dir);
+			}
+		}
+
+		logger.info("watching {} directories", keys.size());
+	}
+
+	/** 获取监视器的运行统计信息 */
+	public String getStatistics()
+	{
+		return String.format("dirs: %d, events: %d, evaluations: %d, overflows: %d", rules.size(), events.get(), evaluations.get(), overflows.get());
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while(true)
+			{
+				WatchKey key	= service.take();
+				Path dir		= (Path)key.watchable();
+
+				for(WatchEvent<?> event : key.pollEvents())
+				{
+					events.incrementAndGet();
+
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+						overflow(dir);
+					else
+						schedule(dir.resolve((Path)event.context()));
+				}
+
+				key.reset();
+			}
+		}
+		catch(ClosedWatchServiceException e)
+		{
+		}
+		catch(InterruptedException e)
+		{
+		}
+	}
+
+	/** 安排检查文件：watch-delay 秒内同一文件的多个事件只检查一次 */
+	private void schedule(final Path file)
+	{
+		if(!pending.add(file))
+			return;
+
+		executor.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				pending.remove(file);
+				evaluate(file);
+			}
+		}, getWatchDelay(), TimeUnit.SECONDS);
+	}
+
+	/** 事件丢失：执行该目录所属执行器的完整检查 */
+	private void overflow(Path dir)
+	{
+		overflows.incrementAndGet();
+		logger.warn("watch events of '{}' overflow, schedule full check", dir);
+
+		List<Rule> list = rules.get(dir);
+
+		if(list == null)
+			return;
+
+		Set<FileRunner> affected = new LinkedHashSet<FileRunner>();
+
+		for(Rule rule : list)
+			affected.add(rule.runner);
+
+		for(FileRunner runner : affected)
+			executor.execute(runner);
+	}
+
+	/** 对单个文件执行过滤，通过后交给优先级最高的规则对应的执行器处理 */
+	private void evaluate(Path path)
+	{
+		List<Rule> list = rules.get(path.getParent());
+
+		if(list == null)
+			return;
+
+		evaluations.incrementAndGet();
+
+		File file					= path.toFile();
+		BasicFileAttributes attrs	= null;
+
+		for(Rule rule : list)
+		{
+			if(!rule.filter.accept(file))
+				continue;
+
+			if(attrs == null)
+			{
+				try
+				{
+					attrs = Files.readAttributes(path, BasicFileAttributes.class);
+				}
+				catch(IOException e)
+				{
+					return;
+				}
+			}
+
+			if(!rule.filter.accept(file, attrs))
+				continue;
+
+			if(!file.canWrite())
+			{
+				logger.warn("'{}' can not be written", file.getAbsolutePath());
+				return;
+			}
+
+			ThreadContext.put(FileRunner.RULE_KEY, String.format("{%s}", rule.fp));
+
+			try
+			{
+				// 每个事件作为一批处理：batched 持久化方式下立即提交（刷新归档文件并删除源文件）
+				synchronized(rule.runner)
+				{
+					rule.runner.process(file, attrs, rule.fp);
+					rule.runner.complete();
+				}
+			}
+			catch(Exception e)
+			{
+				LogUtil.exception(e, rule.runner.toString(), Level.ERROR, true);
+			}
+			finally
+			{
+				ThreadContext.remove(FileRunner.RULE_KEY);
+			}
+
+			return;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s@%s", getClass().getSimpleName(), hashCode());
+	}
+}
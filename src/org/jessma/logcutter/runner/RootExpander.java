@@ -0,0 +1,237 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jessma.logcutter.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jessma.logcutter.global.FilePath;
+import org.jessma.logcutter.util.GlobMatcher;
+
+import static org.jessma.logcutter.util.GeneralHelper.IS_WINDOWS_PLATFORM;
+
+/** 通配目录展开器：把 path 中的通配目录（如：/data/apps/app-?/logs）和 name 中的目录部分（如：'**'）展开为实际的扫描目录，
+ * 只进入可能匹配的子目录（剪枝），'**' 匹配任意层（0 层或多层）目录。
+ * 展开结果按 FilePath 缓存，展开过程中读取过的目录的最后修改时间都没有变化时直接使用缓存
+ */
+class RootExpander
+{
+	private static final String ANY_DIRS = "**";
+
+	private final Map<FilePath, Expansion> cache = new HashMap<FilePath, Expansion>();
+
+	private long statCalls;
+
+	/** 展开结果 */
+	private static class Expansion
+	{
+		final File base;
+		final List<String> segments;
+		final List<GlobMatcher> matchers;
+
+		List<File> roots;
+		Map<File, Long> visited;
+
+		Expansion(File base, List<String> segments)
+		{
+			this.base		= base;
+			this.segments	= segments;
+			this.matchers	= new ArrayList<GlobMatcher>(segments.size());
+
+			for(String seg : segments)
+				matchers.add(isWildcard(seg) ? GlobMatcher.compile(seg, IS_WINDOWS_PLATFORM) : null);
+		}
+	}
+
+	/** 获取 FilePath 的扫描目录 */
+	List<File> getRoots(FilePath fp) throws IOException
+	{
+		if(!fp.hasWildcardDir())
+			return Collections.singletonList(new File(fp.getPath()));
+
+		Expansion exp = cache.get(fp);
+
+		if(exp == null)
+		{
+			exp = parse(fp);
+			cache.put(fp, exp);
+		}
+
+		if(exp.roots == null || !isValid(exp))
+			expand(exp, fp.getMaxDepth());
+
+		return exp.roots;
+	}
+
+	/** 获取并清零文件状态查询次数 */
+	long takeStatCalls()
+	{
+		long n		= statCalls;
+		statCalls	= 0;
+
+		return n;
+	}
+
+	private boolean isValid(Expansion exp)
+	{
+		for(Map.Entry<File, Long> e : exp.visited.entrySet())
+		{
+			++statCalls;
+
+			if(e.getKey().lastModified() != e.getValue())
+				return false;
+		}
+
+		return true;
+	}
+
+	private void expand(Expansion exp, int maxDepth) throws IOException
+	{
+		Set<File> roots			= new LinkedHashSet<File>();
+		Map<File, Long> visited	= new HashMap<File, Long>();
+
+		expand(exp, exp.base, 0, 0, maxDepth, roots, visited);
+
+		exp.roots	= new ArrayList<File>(roots);
+		exp.visited	= visited;
+	}
+
+	private void expand(Expansion exp, File dir, int index, int depth, int maxDepth, Set<File> roots, Map<File, Long> visited) throws IOException
+	{
+		if(index == exp.segments.size())
+		{
+			roots.add(dir);
+			return;
+		}
+
+		String seg			= exp.segments.get(index);
+		GlobMatcher matcher	= exp.matchers.get(index);
+
+		if(seg.equals(ANY_DIRS))
+		{
+			expand(exp, dir, index + 1, depth, maxDepth, roots, visited);
+
+			if(depth < maxDepth)
+			{
+				for(File sub : listDirs(dir, null, visited))
+					expand(exp, sub, index, depth + 1, maxDepth, roots, visited);
+			}
+		}
+		else if(depth < maxDepth)
+		{
+			if(matcher == null)
+			{
+				// 普通目录不必列出父目录，但父目录的修改时间用于判断该目录是否被创建或删除
+				File sub = new File(dir, seg);
+
+				statCalls += 2;
+				visited.put(dir, dir.lastModified());
+
+				if(sub.isDirectory())
+					expand(exp, sub, index + 1, depth + 1, maxDepth, roots, visited);
+			}
+			else
+			{
+				for(File sub : listDirs(dir, matcher, visited))
+					expand(exp, sub, index + 1, depth + 1, maxDepth, roots, visited);
+			}
+		}
+	}
+
+	/** 列出目录下名称匹配 matcher（为 null 时不过滤）的子目录，并记录目录的最后修改时间 */
+	private List<File> listDirs(File dir, GlobMatcher matcher, Map<File, Long> visited) throws IOException
+	{
+		List<File> dirs = new ArrayList<File>();
+
+		++statCalls;
+		visited.put(dir, dir.lastModified());
+
+		if(!dir.isDirectory())
+			return dirs;
+
+		DirectoryStream<Path> ds = Files.newDirectoryStream(dir.toPath());
+
+		try
+		{
+			for(Path p : ds)
+			{
+				if(matcher != null && !matcher.matches(p.getFileName().toString()))
+					continue;
+
+				++statCalls;
+
+				if(Files.isDirectory(p))
+					dirs.add(p.toFile());
+			}
+		}
+		finally
+		{
+			ds.close();
+		}
+
+		return dirs;
+	}
+
+	/** 把 path + name 的目录部分拆分为第一个通配目录之前的基础目录和之后的目录段 */
+	private static Expansion parse(FilePath fp)
+	{
+		String pattern			= fp.getPath() + fp.getDirName();
+		String[] parts			= pattern.split("[/\\\\]");
+		StringBuilder base		= new StringBuilder();
+		List<String> segments	= new ArrayList<String>();
+
+		for(int i = 0; i < parts.length; i++)
+		{
+			String part = parts[i];
+
+			if(segments.isEmpty() && !isWildcard(part))
+			{
+				base.append(part).append(File.separatorChar);
+				continue;
+			}
+
+			if(!part.isEmpty())
+				segments.add(part);
+		}
+
+		return new Expansion(new File(base.length() == 0 ? "." : base.toString()), segments);
+	}
+
+	private static boolean isWildcard(String seg)
+	{
+		return seg.indexOf('*') >= 0 || seg.indexOf('?') >= 0;
+	}
+}
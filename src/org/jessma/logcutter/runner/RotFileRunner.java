@@ -0,0 +1,339 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.Logger;
+import org.jessma.logcutter.global.FilePath;
+import org.jessma.logcutter.global.RotFilePath;
+import org.jessma.logcutter.util.ControlBlock;
+import org.jessma.logcutter.util.LogUtil;
+
+import static org.jessma.logcutter.util.GeneralHelper.IS_WINDOWS_PLATFORM;
+
+public class RotFileRunner extends FileRunner
+{
+	private static final Logger logger			= LogUtil.getDefaultLogger();
+
+	private static final long BYTE_UNIT_FACTOR	= 1024L;
+	private static final String DATE_PATTERN	= "yyyyMMddHHmmss";
+	private static final Pattern SEGMENT_SUFFIX	= Pattern.compile("\\.(\\d+)$");
+	private static final long ACK_POLL_INTERVAL	= 100;
+
+	private final ConcurrentMap<String, ControlBlock> controls = new ConcurrentHashMap<String, ControlBlock>();
+
+	public RotFileRunner(List<RotFilePath> files)
+	{
+		super(files);
+	}
+
+	@Override
+	protected int getPriority()
+	{
+		return 2;
+	}
+
+	@Override
+	protected FileFilterBase getFileFilter(final FilePath fp)
+	{
+		return new FileFilterBase(fp)
+		{
+			@Override
+			protected boolean doAccept(File file, BasicFileAttributes attrs)
+			{
+				return	attrs.isRegularFile() &&
+						!SEGMENT_SUFFIX.matcher(file.getName()).find() &&
+						!ControlBlock.isControlFile(file) &&
+						attrs.size() >= ((RotFilePath)fp).getThreshold() * BYTE_UNIT_FACTOR;
+			}
+		};
+	}
+
+	@Override
+	protected void process(File file, BasicFileAttributes attrs, final FilePath fp)
+	{
+		final RotFilePath rfp = (RotFilePath)fp;
+
+		try
+		{
+			logger.info("rotating '{}'", file.getAbsolutePath());
+
+			Path source					= file.toPath();
+			Path target					= getSegmentPath(file, rfp);
+			PosixFileAttributes perms	= readPosixAttributes(source);
+			ControlBlock control		= rfp.isCooperative() ? getControlBlock(file) : null;
+
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+
+			// 改名成功后无论新文件是否创建成功都要通知写日志进程重新打开日志文件
+			if(rfp.isCreate())
+			{
+				try
+				{
+					createReplacement(source, perms);
+				}
+				catch(IOException e)
+				{
+					logger.warn("can not create '{}' -> {}", source, e.toString());
+				}
+			}
+
+			long generation = control != null ? control.request() : 0;
+
+			if(rfp.getPidFile() != null)
+				signalWriter(rfp);
+
+			logger.info("OK ! -> '{}'", target);
+
+			// 协作轮转：写日志进程确认重新打开之前，分段文件可能仍在写入
+			if(control != null)
+				awaitAck(file, rfp, control, generation);
+			else if(rfp.getExpire() > 0)
+				deleteExpiredSegments(file, rfp);
+		}
+		catch(Exception e)
+		{
+			logger.error("Exception -> {}", e);
+		}
+	}
+
+	/** 获取日志文件对应的控制块（每个日志文件只映射一次） */
+	private ControlBlock getControlBlock(File file) throws IOException
+	{
+		String key				= file.getAbsolutePath();
+		ControlBlock control	= controls.get(key);
+
+		if(control == null)
+		{
+			control			= ControlBlock.open(file);
+			ControlBlock old	= controls.putIfAbsent(key, control);
+
+			if(old != null)
+				control = old;
+		}
+
+		return control;
+	}
+
+	/** 在执行器上轮询写日志进程的确认，确认后删除过期的分段文件（不阻塞检查线程） */
+	private void awaitAck(final File file, final RotFilePath rfp, final ControlBlock control, final long generation) throws InterruptedException
+	{
+		final ScheduledExecutorService executor	= getExecutor();
+		final long deadline						= System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(rfp.getAckTimeout());
+
+		if(executor == null || executor.isShutdown())
+		{
+			if(!control.awaitAck(generation, deadline - System.currentTimeMillis()))
+				logger.warn("writer did not acknowledge reopen request (generation: {}) in {} secs", generation, rfp.getAckTimeout());
+			else if(rfp.getExpire() > 0)
+				deleteExpiredSegments(file, rfp);
+
+			return;
+		}
+
+		executor.schedule
+		(
+			new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if(control.getAck() >= generation)
+					{
+						if(rfp.getExpire() > 0)
+							deleteExpiredSegments(file, rfp);
+					}
+					else if(System.currentTimeMillis() >= deadline)
+						logger.warn("writer did not acknowledge reopen request (generation: {}) in {} secs", generation, rfp.getAckTimeout());
+					else if(!executor.isShutdown())
+						executor.schedule(this, ACK_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				}
+			},
+			ACK_POLL_INTERVAL, TimeUnit.MILLISECONDS
+		);
+	}
+
+	/** 获取分段文件路径：{文件名}.{序号} 或 {文件名}.{yyyyMMddHHmmss} */
+	private static Path getSegmentPath(File file, RotFilePath rfp)
+	{
+		String name = file.getName();
+		String suffix;
+
+		if(rfp.getSegment() == RotFilePath.Segment.DATE)
+			suffix = new SimpleDateFormat(DATE_PATTERN).format(new Date());
+		else
+		{
+			long max		= 0;
+			String[] names	= file.getParentFile().list();
+
+			if(names != null)
+			{
+				for(String n : names)
+				{
+					long index = getSegmentIndex(name, n);
+
+					if(index > max)
+						max = index;
+				}
+			}
+
+			suffix = String.valueOf(max + 1);
+		}
+
+		File target = new File(file.getParentFile(), name + "." + suffix);
+
+		for(int i = 1; target.exists(); i++)
+			target = new File(file.getParentFile(), String.format("%s.%s%d", name, suffix, i));
+
+		return target.toPath();
+	}
+
+	/** 如果 segment 是 name 的分段文件则返回其序号，否则返回 -1 */
+	private static long getSegmentIndex(String name, String segment)
+	{
+		if(segment.length() <= name.length() + 1 || !segment.startsWith(name) || segment.charAt(name.length()) != '.')
+			return -1;
+
+		Matcher m = SEGMENT_SUFFIX.matcher(segment);
+
+		if(!m.find() || m.start() != name.length())
+			return -1;
+
+		try
+		{
+			return Long.parseLong(m.group(1));
+		}
+		catch(NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	private static PosixFileAttributes readPosixAttributes(Path path)
+	{
+		try
+		{
+			return Files.readAttributes(path, PosixFileAttributes.class);
+		}
+		catch(Exception e)
+		{
+			return null;
+		}
+	}
+
+	/** 创建与原文件权限和属主相同的空文件（文件已被写日志进程重新创建时不做处理） */
+	private static void createReplacement(Path path, PosixFileAttributes attrs) throws IOException
+	{
+		try
+		{
+			Files.createFile(path);
+		}
+		catch(FileAlreadyExistsException e)
+		{
+			return;
+		}
+
+		if(attrs != null)
+		{
+			PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+
+			view.setPermissions(attrs.permissions());
+
+			try
+			{
+				view.setOwner(attrs.owner());
+				view.setGroup(attrs.group());
+			}
+			catch(IOException e)
+			{
+				logger.warn("can not change owner of '{}' -> {}", path, e.toString());
+			}
+		}
+	}
+
+	/** 向 pid 文件指定的写日志进程发送信号，通知其重新打开日志文件 */
+	private static void signalWriter(RotFilePath rfp)
+	{
+		if(IS_WINDOWS_PLATFORM)
+		{
+			logger.warn("signal writer process not supported on this platform");
+			return;
+		}
+
+		try
+		{
+			String pid		= new String(Files.readAllBytes(new File(rfp.getPidFile()).toPath()), StandardCharsets.US_ASCII).trim();
+			Process proc	= new ProcessBuilder("kill", "-s", rfp.getSignal(), pid).redirectErrorStream(true).start();
+
+			if(proc.waitFor() != 0)
+				logger.warn("signal '{}' to process {} fail", rfp.getSignal(), pid);
+		}
+		catch(Exception e)
+		{
+			logger.warn("signal writer process fail -> {}", e.toString());
+		}
+	}
+
+	/** 删除过期的分段文件 */
+	private static void deleteExpiredSegments(File file, RotFilePath rfp)
+	{
+		File[] segments = file.getParentFile().listFiles();
+
+		if(segments == null)
+			return;
+
+		long now = new Date().getTime();
+
+		for(File f : segments)
+		{
+			if(getSegmentIndex(file.getName(), f.getName()) < 0)
+				continue;
+
+			long days = TimeUnit.MILLISECONDS.toDays(now - f.lastModified());
+
+			if(days >= rfp.getExpire())
+				deleteFile(f);
+		}
+	}
+}
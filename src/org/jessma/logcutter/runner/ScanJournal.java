@@ -0,0 +1,329 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.runner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.jessma.logcutter.util.LogUtil;
+
+import static org.jessma.logcutter.global.AppConfig.getJournalFile;
+
+/** 扫描日志：跨检查周期持久化每个（规则, 目录）的扫描结果（目录最后修改时间、目录项数，以及候选文件的大小、最后修改时间和判断结果），
+ * 保存在锁文件旁边。目录最后修改时间没有变化时（没有新增、删除或重命名文件）不再读取目录，
+ * 只在最早的到期时间到达后重新检查已到期的文件。只适用于过滤条件只取决于文件最后修改时间的执行器
+ */
+class ScanJournal
+{
+	private static final Logger logger			= LogUtil.getDefaultLogger();
+
+	private static final int MAGIC				= 0x4C43534A;	// 'LCSJ'
+	private static final int VERSION			= 1;
+	private static final long STALE_MILLIS		= TimeUnit.DAYS.toMillis(30);
+	private static final long DAY_MILLIS		= TimeUnit.DAYS.toMillis(1);
+
+	/** 判断结果：未到期 */
+	static final byte WAIT	= 0;
+	/** 判断结果：已到期但未处理（如：文件不可写），每轮检查都重新检查 */
+	static final byte DUE	= 1;
+
+	private static ScanJournal instance;
+
+	private final File file;
+	private final Map<String, Dir> dirs = new HashMap<String, Dir>();
+
+	private boolean dirty;
+
+	/** 候选文件记录 */
+	static class Entry
+	{
+		final String name;
+		final long size;
+		final long mtime;
+		final long due;
+		final byte decision;
+
+		Entry(String name, long size, long mtime, long due, byte decision)
+		{
+			this.name		= name;
+			this.size		= size;
+			this.mtime		= mtime;
+			this.due		= due;
+			this.decision	= decision;
+		}
+	}
+
+	/** 目录记录 */
+	static class Dir
+	{
+		final long mtime;
+		final int children;
+		final long expire;
+		final long nextDue;
+		final List<Entry> entries;
+
+		long lastSeen;
+
+		Dir(long mtime, int children, long expire, List<Entry> entries, long lastSeen)
+		{
+			long next = Long.MAX_VALUE;
+
+			for(Entry e : entries)
+				next = Math.min(next, e.due);
+
+			this.mtime		= mtime;
+			this.children	= children;
+			this.expire		= expire;
+			this.nextDue	= next;
+			this.entries	= entries;
+			this.lastSeen	= lastSeen;
+		}
+
+		/** 目录及规则的到期天数都没有变化时记录有效 */
+		boolean isValid(long mtime, long expire)
+		{
+			return this.mtime == mtime && this.expire == expire;
+		}
+	}
+
+	/** 记录一次扫描（或重新检查）的结果 */
+	static class Recorder
+	{
+		private final long expire;
+		private final long now			= System.currentTimeMillis();
+		private final List<Entry> entries	= new ArrayList<Entry>();
+
+		private int children;
+		private boolean handled;
+
+		Recorder(long expire)
+		{
+			this.expire = expire;
+		}
+
+		/** 记录通过文件名过滤的文件 */
+		void add(File file, BasicFileAttributes attrs)
+		{
+			long mtime	= attrs.lastModifiedTime().toMillis();
+			long due	= mtime + expire * DAY_MILLIS;
+
+			entries.add(new Entry(file.getName(), attrs.size(), mtime, due, due > now ? WAIT : DUE));
+		}
+
+		/** 保留未到期（不需要重新检查）的文件记录 */
+		void keep(Entry e)
+		{
+			entries.add(e);
+		}
+
+		void setChildren(int children)
+		{
+			this.children = children;
+		}
+
+		/** 标记有文件交给执行器处理（目录将被修改，不保存本次结果） */
+		void setHandled()
+		{
+			handled = true;
+		}
+
+		boolean isHandled()
+		{
+			return handled;
+		}
+
+		Dir build(long mtime)
+		{
+			return new Dir(mtime, children, expire, entries, now);
+		}
+	}
+
+	private ScanJournal(File file)
+	{
+		this.file = file;
+	}
+
+	/** 获取扫描日志（第一次调用时从文件加载） */
+	static synchronized ScanJournal getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new ScanJournal(new File(getJournalFile()));
+			instance.load();
+		}
+
+		return instance;
+	}
+
+	/** 获取目录记录，不存在时返回 null */
+	synchronized Dir get(String key)
+	{
+		Dir dir = dirs.get(key);
+
+		if(dir != null)
+		{
+			dir.lastSeen	= System.currentTimeMillis();
+			dirty			= true;
+		}
+
+		return dir;
+	}
+
+	synchronized void put(String key, Dir dir)
+	{
+		dirs.put(key, dir);
+		dirty = true;
+	}
+
+	synchronized void remove(String key)
+	{
+		if(dirs.remove(key) != null)
+			dirty = true;
+	}
+
+	/** 保存到文件（先写临时文件再替换），同时丢弃长时间没有使用的记录 */
+	synchronized void save() throws IOException
+	{
+		if(!dirty)
+			return;
+
+		long now = System.currentTimeMillis();
+
+		for(Iterator<Dir> it = dirs.values().iterator(); it.hasNext(); )
+		{
+			if(now - it.next().lastSeen > STALE_MILLIS)
+				it.remove();
+		}
+
+		File tmp				= new File(file.getPath() + ".tmp");
+		DataOutputStream out	= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dirs.size());
+
+			for(Map.Entry<String, Dir> me : dirs.entrySet())
+			{
+				Dir dir = me.getValue();
+
+				out.writeUTF(me.getKey());
+				out.writeLong(dir.mtime);
+				out.writeInt(dir.children);
+				out.writeLong(dir.expire);
+				out.writeLong(dir.lastSeen);
+				out.writeInt(dir.entries.size());
+
+				for(Entry e : dir.entries)
+				{
+					out.writeUTF(e.name);
+					out.writeLong(e.size);
+					out.writeLong(e.mtime);
+					out.writeLong(e.due);
+					out.writeByte(e.decision);
+				}
+			}
+
+			out.writeInt(MAGIC);
+		}
+		finally
+		{
+			out.close();
+		}
+
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		dirty = false;
+	}
+
+	/** 从文件加载，文件不存在或已损坏时从空记录开始（所有目录重新扫描） */
+	private void load()
+	{
+		if(!file.isFile())
+			return;
+
+		Map<String, Dir> loaded = new HashMap<String, Dir>();
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			try
+			{
+				if(in.readInt() != MAGIC || in.readInt() != VERSION)
+					throw new IOException("unknown journal format");
+
+				for(int i = in.readInt(); i > 0; i--)
+				{
+					String key		= in.readUTF();
+					long mtime		= in.readLong();
+					int children	= in.readInt();
+					long expire		= in.readLong();
+					long lastSeen	= in.readLong();
+					int size		= in.readInt();
+
+					List<Entry> entries = new ArrayList<Entry>(size);
+
+					for(int j = 0; j < size; j++)
+						entries.add(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readByte()));
+
+					loaded.put(key, new Dir(mtime, children, expire, Collections.unmodifiableList(entries), lastSeen));
+				}
+
+				if(in.readInt() != MAGIC)
+					throw new IOException("journal truncated");
+			}
+			finally
+			{
+				in.close();
+			}
+
+			dirs.putAll(loaded);
+			logger.info("scan journal loaded: {} directories", dirs.size());
+		}
+		catch(IOException e)
+		{
+			logger.warn("can not load scan journal '{}', all directories will be rescanned -> {}", file, e.toString());
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jessma.logcutter.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.jessma.logcutter.global.FilePath;
+import org.jessma.logcutter.runner.FileRunner.FileFilterBase;
+import org.jessma.logcutter.util.LogUtil;
+
+/** 共享扫描计划器：把所有执行器的 FilePath 按目录分组，每轮检查每个目录只读取一次，
+ * 每个目录项只读取一次属性，然后交给匹配的规则对应的执行器处理。
+ * 同一文件匹配多条规则时，只交给优先级最高（{@link FileRunner#getPriority()}）的执行器处理，
+ * 优先级相同时按配置顺序取第一条规则（选出规则后其它执行器的规则只匹配文件名，用于统计冲突数）
+ */
+public class ScanPlanner implements Runnable
+{
+	private static final Logger logger = LogUtil.getDefaultLogger();
+
+	private final List<FileRunner> runners;
+	private final RootExpander expander = new RootExpander();
+
+	private boolean running;
+	private long entries;
+	private long statCalls;
+	private long conflicts;
+	private long lastEntries;
+	private long lastStatCalls;
+	private long lastConflicts;
+	private long lastDirs;
+
+	/** 扫描规则 */
+	private static class Rule
+	{
+		final FileRunner runner;
+		final FilePath fp;
+		final FileFilterBase filter;
+
+		Rule(FileRunner runner, FilePath fp, FileFilterBase filter)
+		{
+			this.runner	= runner;
+			this.fp		= fp;
+			this.filter	= filter;
+		}
+	}
+
+	public ScanPlanner(List<FileRunner> runners)
+	{
+		this.runners = new ArrayList<FileRunner>(runners);
+
+		// 稳定排序：优先级相同的执行器保持原来的顺序
+		Collections.sort(this.runners, new Comparator<FileRunner>()
+		{
+			@Override
+			public int compare(FileRunner r1, FileRunner r2)
+			{
+				return Integer.compare(r1.getPriority(), r2.getPriority());
+			}
+		});
+	}
+
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	/** 获取共享扫描的运行统计信息 */
+	public String getStatistics()
+	{
+		return String.format("last run: %d dirs, %d entries, %d stat calls, %d conflicts", lastDirs, lastEntries, lastStatCalls, lastConflicts);
+	}
+
+	@Override
+	synchronized public void run()
+	{
+		running		= true;
+		entries		= 0;
+		statCalls	= 0;
+		conflicts	= 0;
+
+		for(FileRunner r : runners)
+			r.markStart();
+
+		Map<File, List<Rule>> plan = plan();
+
+		for(Map.Entry<File, List<Rule>> e : plan.entrySet())
+		{
+			try
+			{
+				scan(e.getKey(), e.getValue());
+			}
+			catch(Exception ex)
+			{
+				LogUtil.exception(ex, toString(), Level.ERROR, true);
+			}
+		}
+
+		for(FileRunner r : runners)
+		{
+			try
+			{
+				synchronized(r)
+				{
+					r.complete();
+				}
+			}
+			catch(Exception ex)
+			{
+				LogUtil.exception(ex, r.toString(), Level.ERROR, true);
+			}
+
+			r.markEnd();
+		}
+
+		logger.info("shared scan: {} dirs, {} entries, {} stat calls, {} conflicts", plan.size(), entries, statCalls, conflicts);
+
+		running			= false;
+		lastDirs		= plan.size();
+		lastEntries		= entries;
+		lastStatCalls	= statCalls;
+		lastConflicts	= conflicts;
+	}
+
+	/** 按目录分组所有执行器的规则，组内规则按执行器优先级和配置顺序排列 */
+	private Map<File, List<Rule>> plan()
+	{
+		Map<File, List<Rule>> plan = new LinkedHashMap<File, List<Rule>>();
+
+		for(FileRunner r : runners)
+		{
+			for(FilePath fp : r.files)
+			{
+				try
+				{
+					List<File> roots	= expander.getRoots(fp);
+					FileFilterBase ff	= r.getFileFilter(fp);
+
+					for(File root : roots)
+					{
+						File dir			= root.getAbsoluteFile();
+						List<Rule> rules	= plan.get(dir);
+
+						if(rules == null)
+						{
+							rules = new ArrayList<Rule>();
+							plan.put(dir, rules);
+						}
+
+						rules.add(new Rule(r, fp, ff));
+					}
+				}
+				catch(Exception e)
+				{
+					LogUtil.exception(e, r.toString(), Level.ERROR, true);
+				}
+			}
+		}
+
+		statCalls += expander.takeStatCalls();
+
+		return plan;
+	}
+
+	/** 读取一次目录，为每个目录项选出处理规则，然后逐个处理 */
+	private void scan(File dir, List<Rule> rules) throws IOException
+	{
+		++statCalls;
+
+		if(!dir.isDirectory())
+			return;
+
+		List<File> fs					= new ArrayList<File>();
+		List<BasicFileAttributes> as	= new ArrayList<BasicFileAttributes>();
+		List<Rule> rs					= new ArrayList<Rule>();
+
+		DirectoryStream<Path> ds = Files.newDirectoryStream(dir.toPath());
+
+		try
+		{
+			for(Path p : ds)
+			{
+				++entries;
+
+				File f						= p.toFile();
+				BasicFileAttributes attrs	= null;
+				Rule chosen					= null;
+
+				for(Rule rule : rules)
+				{
+					if(!rule.filter.accept(f))
+						continue;
+
+					// 已选出处理规则：其它规则只匹配文件名以统计冲突，不再读取属性或执行完整的过滤
+					if(chosen != null)
+					{
+						if(chosen.runner != rule.runner)
+						{
+							++conflicts;
+							logger.debug("'{}' also matches name of {}, handled by {}", f, rule.runner, chosen.runner);
+						}
+
+						continue;
+					}
+
+					if(attrs == null)
+					{
+						++statCalls;
+
+						try
+						{
+							attrs = Files.readAttributes(p, BasicFileAttributes.class);
+						}
+						catch(IOException e)
+						{
+							break;
+						}
+					}
+
+					if(rule.filter.accept(f, attrs))
+						chosen = rule;
+				}
+
+				if(chosen == null)
+					continue;
+
+				++statCalls;
+
+				if(f.canWrite())
+				{
+					fs.add(f);
+					as.add(attrs);
+					rs.add(chosen);
+				}
+				else
+					logger.warn("'{}' can not be written", f.getAbsolutePath());
+			}
+		}
+		finally
+		{
+			ds.close();
+		}
+
+		for(int i = 0; i < fs.size(); i++)
+		{
+			Rule rule = rs.get(i);
+
+			ThreadContext.put(FileRunner.RULE_KEY, String.format("{%s}", rule.fp));
+
+			try
+			{
+				synchronized(rule.runner)
+				{
+					rule.runner.process(fs.get(i), as.get(i), rule.fp);
+				}
+			}
+			finally
+			{
+				ThreadContext.remove(FileRunner.RULE_KEY);
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s@%s", getClass().getSimpleName(), hashCode());
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.runner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** 目录树年龄：获取目录树中（包括目录自身）最新的最后修改时间，由下至上计算，发现晚于 cutoff 的文件或目录时立即停止遍历。
+ * 在 fork/join 线程池中执行时（并行模式）每个子目录作为一个子任务计算。
+ * 每个目录的计算结果被缓存：目录自身的最后修改时间没有变化并且缓存的时间晚于 cutoff 时不再遍历该目录
+ * （文件只会变得更新；删除目录中最新的文件会修改该目录的最后修改时间）
+ */
+class SubtreeAge
+{
+	private static final int MAX_ENTRIES = 100000;
+
+	/** 目录 -> { 目录最后修改时间, 目录树最新的最后修改时间（或其下限） } */
+	private static final Map<String, long[]> memo = new LinkedHashMap<String, long[]>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private SubtreeAge()
+	{
+
+	}
+
+	/** 获取目录树中最新的最后修改时间（dirTime 为目录自身的最后修改时间），
+	 * 结果晚于 cutoff 时返回值可能只是下限（已发现晚于 cutoff 的时间后不再继续遍历）
+	 */
+	static long getLastModified(FileRunner runner, File dir, long dirTime, long cutoff)
+	{
+		return compute(runner, dir.toPath(), dirTime, cutoff, new AtomicBoolean());
+	}
+
+	private static long compute(final FileRunner runner, Path dir, long dirTime, final long cutoff, final AtomicBoolean fresh)
+	{
+		String key	= dir.toString();
+		long[] m	= get(key);
+
+		if(dirTime > cutoff)
+		{
+			fresh.set(true);
+			return dirTime;
+		}
+
+		if(m != null && m[0] == dirTime && m[1] > cutoff)
+		{
+			fresh.set(true);
+			return m[1];
+		}
+
+		long max			= dirTime;
+		boolean complete	= true;
+		List<Path> subs		= new ArrayList<Path>();
+		List<Long> times	= new ArrayList<Long>();
+
+		try
+		{
+			DirectoryStream<Path> ds = Files.newDirectoryStream(dir);
+
+			try
+			{
+				for(Path p : ds)
+				{
+					if(fresh.get())
+					{
+						complete = false;
+						break;
+					}
+
+					BasicFileAttributes attrs = runner.readAttributes(p, LinkOption.NOFOLLOW_LINKS);
+
+					if(attrs == null)
+						continue;
+
+					long time = attrs.lastModifiedTime().toMillis();
+
+					if(attrs.isDirectory())
+					{
+						subs.add(p);
+						times.add(time);
+					}
+					else if(time > max)
+					{
+						max = time;
+
+						if(max > cutoff)
+						{
+							fresh.set(true);
+							put(key, dirTime, max);
+
+							return max;
+						}
+					}
+				}
+			}
+			finally
+			{
+				ds.close();
+			}
+		}
+		catch(IOException e)
+		{
+			complete = false;
+		}
+
+		// 并行模式下每个子目录作为一个子任务计算
+		if(complete && ForkJoinTask.inForkJoinPool() && subs.size() > 1)
+		{
+			List<RecursiveTask<Long>> tasks = new ArrayList<RecursiveTask<Long>>(subs.size());
+
+			for(int i = 0; i < subs.size(); i++)
+			{
+				final Path sub	= subs.get(i);
+				final long time	= times.get(i);
+
+				tasks.add(new RecursiveTask<Long>()
+				{
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected Long compute()
+					{
+						return SubtreeAge.compute(runner, sub, time, cutoff, fresh);
+					}
+				});
+			}
+
+			ForkJoinTask.invokeAll(tasks);
+
+			for(RecursiveTask<Long> t : tasks)
+				max = Math.max(max, t.join());
+		}
+		else if(complete)
+		{
+			for(int i = 0; i < subs.size() && !fresh.get(); i++)
+				max = Math.max(max, compute(runner, subs.get(i), times.get(i), cutoff, fresh));
+		}
+
+		// 其它子任务发现较新的文件时本目录的遍历可能不完整，只缓存完整的结果或晚于 cutoff 的下限
+		if(max > cutoff || (complete && !fresh.get()))
+			put(key, dirTime, max);
+
+		return max;
+	}
+
+	private static long[] get(String key)
+	{
+		synchronized(memo)
+		{
+			return memo.get(key);
+		}
+	}
+
+	private static void put(String key, long dirTime, long max)
+	{
+		synchronized(memo)
+		{
+			memo.put(key, new long[] {dirTime, max});
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jessma.logcutter.runner;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.jessma.logcutter.global.Charset;
+
+/** 按时间查找保留起点：在文件偏移量上二分查找第一条时间戳不早于 cutoff 的记录（没有时间戳的行归属于前一条记录） */
+class TimestampSearcher
+{
+	private static final int TIMESTAMP_BYTES	= 256;
+	private static final int WINDOW_SIZE		= 64 * 1024;
+	private static final long MAX_PROBE_BYTES	= 1024L * 1024;
+	private static final int MAX_PROBE_LINES	= 10000;
+
+	private final RandomAccessFile in;
+	private final Charset cs;
+	private final java.nio.charset.Charset decoder;
+	private final SimpleDateFormat format;
+	private final long length;
+
+	private int probes;
+	private boolean parsed;
+
+	TimestampSearcher(RandomAccessFile in, Charset cs, String pattern, long length)
+	{
+		this.in			= in;
+		this.cs			= cs;
+		this.decoder	= java.nio.charset.Charset.forName(cs.toString());
+		this.format		= new SimpleDateFormat(pattern);
+		this.length		= length;
+
+		format.setLenient(false);
+	}
+
+	/** 获取保留起点：第一条时间戳不早于 cutoff 的记录的起始位置，所有记录都早于 cutoff 时返回文件长度，
+	 * 查找过程中没有任何一行能解析出时间戳时（如：时间戳格式与日志不匹配）抛出异常
+	 */
+	long search(long cutoff) throws IOException
+	{
+		long lo = 0;
+		long hi = length;
+
+		while(lo < hi)
+		{
+			long mid		= lo + (hi - lo) / 2;
+			long[] record	= nextRecord(mid, hi);
+
+			if(record == null || record[1] >= cutoff)
+				hi = mid;
+			else
+				lo = record[0] + 1;
+		}
+
+		if(!parsed && length > 0)
+			throw new IOException(String.format("no timestamp found (timestamp pattern: '%s')", format.toPattern()));
+
+		if(lo == 0)
+			return 0;
+
+		long[] record = nextRecord(lo, length);
+
+		return record != null ? record[0] : length;
+	}
+
+	/** 获取二分查找过程中的时间戳解析次数 */
+	int getProbes()
+	{
+		return probes;
+	}
+
+	/** 查找 [pos, limit) 范围内第一条带时间戳的行，返回 { 行起始位置, 时间戳 }，找不到时返回 null。
+	 * 以 {@link #WINDOW_SIZE} 大小的窗口读取文件并在窗口内逐行解析，最多向前查找 {@link #MAX_PROBE_BYTES} 字节或
+	 * {@link #MAX_PROBE_LINES} 行（如：很长的异常堆栈），超过该范围仍找不到时间戳时返回 { 查找起始位置, Long.MAX_VALUE }，
+	 * 即把查找起始位置当作一条不早于 cutoff 的记录：二分查找转向前半部分，最坏情况下从该位置开始保留
+	 */
+	private long[] nextRecord(long pos, long limit) throws IOException
+	{
+		final byte[] lf		= cs.getLineFeed();
+		final long start	= lineStartAtOrAfter(pos);
+		final long cap		= Math.min(limit, start + MAX_PROBE_BYTES);
+
+		long p				= start;
+		boolean lineStart	= true;
+		int lines			= 0;
+
+		scan:
+		while(p < cap)
+		{
+			byte[] buf	= read(p, WINDOW_SIZE);
+			boolean eof	= p + buf.length >= length;
+			int off		= 0;
+
+			if(buf.length == 0)
+				return null;
+
+			// 窗口从行的中间开始：先找到下一行
+			if(!lineStart)
+			{
+				int nl = indexOf(buf, lf, 0);
+
+				if(nl < 0)
+				{
+					if(eof)
+						return null;
+
+					p += buf.length - (lf.length - 1);
+					continue;
+				}
+
+				off = nl + lf.length;
+			}
+
+			while(true)
+			{
+				long line = p + off;
+
+				if(line >= cap)
+					break scan;
+
+				// 窗口剩余内容不足以解析时间戳：从该行开始读取下一个窗口
+				if(!eof && buf.length - off < TIMESTAMP_BYTES)
+				{
+					p			= line;
+					lineStart	= true;
+					continue scan;
+				}
+
+				Date ts = parseTimestamp(buf, off, line);
+
+				if(ts != null)
+					return new long[] {line, ts.getTime()};
+				if(++lines >= MAX_PROBE_LINES)
+					return unknownRecord(start);
+
+				int nl = indexOf(buf, lf, off);
+
+				if(nl < 0)
+				{
+					if(eof)
+						return null;
+
+					p			+= buf.length - (lf.length - 1);
+					lineStart	= false;
+					continue scan;
+				}
+
+				off = nl + lf.length;
+			}
+		}
+
+		if(cap < limit)
+			return unknownRecord(start);
+
+		return null;
+	}
+
+	private static long[] unknownRecord(long start)
+	{
+		return new long[] {start, Long.MAX_VALUE};
+	}
+
+	private long lineStartAtOrAfter(long pos) throws IOException
+	{
+		if(pos == 0)
+			return 0;
+
+		in.seek(Math.max(0, pos - cs.getLineFeed().length));
+
+		return cs.scanNextLine(in);
+	}
+
+	/** 解析 buf 中 off 位置开始的行（文件位置为 line）的时间戳 */
+	private Date parseTimestamp(byte[] buf, int off, long line)
+	{
+		++probes;
+
+		if(line == 0)
+		{
+			byte[] bom = cs.getBom();
+
+			if(bom.length > 0 && buf.length - off >= bom.length && Arrays.equals(bom, Arrays.copyOfRange(buf, off, off + bom.length)))
+				off += bom.length;
+		}
+
+		int size	= Math.min(TIMESTAMP_BYTES, buf.length - off);
+		String text	= decoder.decode(ByteBuffer.wrap(buf, off, size)).toString();
+
+		Date ts = format.parse(text, new ParsePosition(0));
+
+		if(ts != null)
+			parsed = true;
+
+		return ts;
+	}
+
+	private static int indexOf(byte[] buf, byte[] delimiter, int from)
+	{
+		for(int i = from; i + delimiter.length <= buf.length; i++)
+		{
+			int j = 0;
+
+			while(j < delimiter.length && buf[i + j] == delimiter[j])
+				++j;
+
+			if(j == delimiter.length)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private byte[] read(long pos, int size) throws IOException
+	{
+		FileChannel fc		= in.getChannel();
+		ByteBuffer buffer	= ByteBuffer.allocate((int)Math.max(0, Math.min(size, length - pos)));
+
+		for(int r = 0; buffer.hasRemaining() && (r = fc.read(buffer, pos + buffer.position())) >= 0; );
+
+		byte[] data = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, data, 0, data.length);
+
+		return data;
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jessma.logcutter.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/** 协作轮转控制块：日志轮转程序与写日志进程通过内存映射的控制文件 {日志文件名}.lcctl 交换重新打开请求，
+ * 
+ * <pre>
+ * 偏移	长度	内容
+ * 0		4		魔数 'LCCB'
+ * 4		4		协议版本
+ * 8		8		请求代数（由轮转程序递增）
+ * 16		8		确认代数（写日志进程重新打开日志文件后写入）
+ * 24		8		最近一次请求的时间（毫秒）
+ * </pre>
+ * 
+ * 轮转程序先改名日志文件再递增请求代数；写日志进程发现请求代数与确认代数不一致时重新打开日志文件并写入确认代数，
+ * 改名之后、重新打开之前写入的日志仍然写入已改名的分段文件，因此轮转过程无需复制数据也不会丢失日志。
+ */
+public class ControlBlock
+{
+	/** 控制文件后缀 */
+	public static final String SUFFIX		= ".lcctl";
+
+	private static final int MAGIC			= 0x4C434342;
+	private static final int VERSION		= 1;
+	private static final int SIZE			= 32;
+
+	private static final int MAGIC_POS		= 0;
+	private static final int VERSION_POS	= 4;
+	private static final int REQUEST_POS	= 8;
+	private static final int ACK_POS		= 16;
+	private static final int TIME_POS		= 24;
+
+	private static final long POLL_INTERVAL	= 10;
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+
+	private ControlBlock(File file, MappedByteBuffer buffer)
+	{
+		this.file	= file;
+		this.buffer	= buffer;
+	}
+
+	/** 获取日志文件对应的控制文件 */
+	public static final File getControlFile(File log)
+	{
+		return new File(log.getAbsoluteFile().getParentFile(), log.getName() + SUFFIX);
+	}
+
+	/** 判断文件是否控制文件 */
+	public static final boolean isControlFile(File file)
+	{
+		return file.getName().endsWith(SUFFIX);
+	}
+
+	/** 打开（不存在则创建）日志文件对应的控制块 */
+	public static final ControlBlock open(File log) throws IOException
+	{
+		File file				= getControlFile(log);
+		RandomAccessFile raf	= new RandomAccessFile(file, "rw");
+
+		try
+		{
+			FileChannel fc			= raf.getChannel();
+			MappedByteBuffer mbf	= fc.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+
+			if(mbf.getInt(MAGIC_POS) != MAGIC)
+			{
+				FileLock lock = fc.lock();
+
+				try
+				{
+					if(mbf.getInt(MAGIC_POS) != MAGIC)
+					{
+						mbf.putLong(REQUEST_POS, 0);
+						mbf.putLong(ACK_POS, 0);
+						mbf.putLong(TIME_POS, 0);
+						mbf.putInt(VERSION_POS, VERSION);
+						mbf.putInt(MAGIC_POS, MAGIC);
+						mbf.force();
+					}
+				}
+				finally
+				{
+					lock.release();
+				}
+			}
+			else if(mbf.getInt(VERSION_POS) != VERSION)
+				throw new IOException(String.format("control block version not supported: %d ('%s')", mbf.getInt(VERSION_POS), file));
+
+			return new ControlBlock(file, mbf);
+		}
+		finally
+		{
+			// 映射在通道关闭后仍然有效
+			raf.close();
+		}
+	}
+
+	/** 获取控制文件 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/** 获取请求代数 */
+	public synchronized long getRequest()
+	{
+		return buffer.getLong(REQUEST_POS);
+	}
+
+	/** 获取确认代数 */
+	public synchronized long getAck()
+	{
+		return buffer.getLong(ACK_POS);
+	}
+
+	/** 发出重新打开请求，返回新的请求代数 */
+	public synchronized long request()
+	{
+		long generation = buffer.getLong(REQUEST_POS) + 1;
+
+		buffer.putLong(TIME_POS, System.currentTimeMillis());
+		buffer.putLong(REQUEST_POS, generation);
+
+		return generation;
+	}
+
+	/** 确认已按 generation 代请求重新打开日志文件 */
+	public synchronized void ack(long generation)
+	{
+		buffer.putLong(ACK_POS, generation);
+	}
+
+	/** 等待写日志进程确认 generation 代请求，超时返回 false */
+	public boolean awaitAck(long generation, long timeout) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while(getAck() < generation)
+		{
+			if(System.currentTimeMillis() >= deadline)
+				return false;
+
+			Thread.sleep(POLL_INTERVAL);
+		}
+
+		return true;
+	}
+}
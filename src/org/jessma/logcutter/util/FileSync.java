@@ -0,0 +1,102 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jessma.logcutter.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** 文件同步工具：把文件内容或目录项刷新到磁盘（fsync），并统计刷新次数和耗时 */
+public class FileSync
+{
+	private static final AtomicLong syncs		= new AtomicLong();
+	private static final AtomicLong totalNanos	= new AtomicLong();
+	private static final AtomicLong maxNanos	= new AtomicLong();
+
+	/** 刷新文件通道，metaData 为 true 时同时刷新文件元数据（如：文件长度） */
+	public static final void force(FileChannel fc, boolean metaData) throws IOException
+	{
+		long begin = System.nanoTime();
+
+		fc.force(metaData);
+
+		record(System.nanoTime() - begin);
+	}
+
+	/** 刷新文件内容及元数据 */
+	public static final void sync(File file) throws IOException
+	{
+		FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try
+		{
+			force(fc, true);
+		}
+		finally
+		{
+			fc.close();
+		}
+	}
+
+	/** 刷新目录项，使目录中新建、改名的文件持久化（Windows 平台不支持打开目录，直接返回） */
+	public static final void syncDirectory(File dir) throws IOException
+	{
+		if(GeneralHelper.IS_WINDOWS_PLATFORM)
+			return;
+
+		sync(dir);
+	}
+
+	/** 获取刷新次数 */
+	public static final long getSyncs()
+	{
+		return syncs.get();
+	}
+
+	/** 获取平均刷新耗时（毫秒） */
+	public static final double getAverageMillis()
+	{
+		long n = syncs.get();
+
+		return n == 0 ? 0 : totalNanos.get() / 1000000.0 / n;
+	}
+
+	/** 获取最大刷新耗时（毫秒） */
+	public static final double getMaxMillis()
+	{
+		return maxNanos.get() / 1000000.0;
+	}
+
+	private static void record(long nanos)
+	{
+		syncs.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		for(long max = maxNanos.get(); nanos > max && !maxNanos.compareAndSet(max, nanos); max = maxNanos.get());
+	}
+}
@@ -1389,29 +1389,22 @@ public class GeneralHelper
 	/** 按文件名称进行文件筛选的文件过滤器，构造函数参数 name 指定文件名的正则表达式 */
 	public static class FileNameFileFilter implements FileFilter
 	{
-		protected static final int FLAGS = IS_WINDOWS_PLATFORM ? Pattern.CASE_INSENSITIVE : 0;
-
-		Pattern pattern;
+		protected final GlobMatcher matcher;
 
 		public FileNameFileFilter(String name)
 		{
-			String exp = name;
-			exp = exp.replace('.', '#');
-			exp = exp.replaceAll("#", "\\\\.");
-			exp = exp.replace('*', '#');
-			exp = exp.replaceAll("#", ".*");
-			exp = exp.replace('?', '#');
-			exp = exp.replaceAll("#", ".?");
-			exp = "^" + exp + "$";
-
-			pattern = Pattern.compile(exp, FLAGS);
+			this(GlobMatcher.compile(name, IS_WINDOWS_PLATFORM));
+		}
+
+		public FileNameFileFilter(GlobMatcher matcher)
+		{
+			this.matcher = matcher;
 		}
 
 		@Override
 		public boolean accept(File file)
 		{
-			Matcher matcher = pattern.matcher(file.getName());
-			return matcher.matches();
+			return matcher.matches(file.getName());
 		}
 	}
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright Bruce Liang (ldcsaa@gmail.com)
+ *
+ * Version	: Log-Cutter 2.0.2
+ * Author	: Bruce Liang
+ * Website	: http://www.jessma.org
+ * Project	: https://github.com/ldcsaa
+ * Blog		: http://www.cnblogs.com/ldcsaa
+ * WeiBo	: http://weibo.com/u/1402935851
+ * QQ Group	: 75375912
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.jessma.logcutter.util;
+
+import java.util.regex.Pattern;
+
+/** 文件名通配符匹配器：'*' 匹配任意个字符，'?' 匹配 0 个或 1 个字符，
+ * 按通配符的形式生成专用匹配器（全文、前缀、后缀、前缀 + 后缀、通用），匹配过程不分配内存，
+ * 忽略大小写时只折叠 ASCII 字母（与 {@link Pattern#CASE_INSENSITIVE} 一致）
+ */
+public abstract class GlobMatcher
+{
+	/** 除 '*'、'?' 和 '.' 之外，在原来的正则表达式实现中具有特殊含义的字符（'#' 被原来的实现当作 '.' 处理） */
+	private static final String REGEX_META = "\\[](){}+^$|#";
+
+	protected final boolean ignoreCase;
+
+	protected GlobMatcher(boolean ignoreCase)
+	{
+		this.ignoreCase = ignoreCase;
+	}
+
+	/** 判断文件名是否匹配 */
+	public abstract boolean matches(String name);
+
+	/** 编译通配符 */
+	public static final GlobMatcher compile(String glob, boolean ignoreCase)
+	{
+		for(int i = 0; i < glob.length(); i++)
+		{
+			// 包含正则表达式特殊字符时保持原来的正则表达式语义
+			if(REGEX_META.indexOf(glob.charAt(i)) >= 0)
+				return new RegexMatcher(glob, ignoreCase);
+		}
+
+		int star	= glob.indexOf('*');
+		int lastStar	= glob.lastIndexOf('*');
+
+		if(glob.indexOf('?') < 0)
+		{
+			if(star < 0)
+				return new LiteralMatcher(glob, ignoreCase);
+			if(star == lastStar)
+				return new PrefixSuffixMatcher(glob.substring(0, star), glob.substring(star + 1), ignoreCase);
+		}
+
+		return new WildcardMatcher(glob, ignoreCase);
+	}
+
+	protected final boolean charEquals(char a, char b)
+	{
+		if(a == b)
+			return true;
+		if(!ignoreCase)
+			return false;
+
+		return toLowerAscii(a) == toLowerAscii(b);
+	}
+
+	protected final boolean regionEquals(String name, int offset, String part)
+	{
+		for(int i = 0; i < part.length(); i++)
+		{
+			if(!charEquals(name.charAt(offset + i), part.charAt(i)))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static char toLowerAscii(char c)
+	{
+		return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+	}
+
+	/** 全文匹配：不含通配符 */
+	private static class LiteralMatcher extends GlobMatcher
+	{
+		private final String literal;
+
+		LiteralMatcher(String literal, boolean ignoreCase)
+		{
+			super(ignoreCase);
+			this.literal = literal;
+		}
+
+		@Override
+		public boolean matches(String name)
+		{
+			return name.length() == literal.length() && regionEquals(name, 0, literal);
+		}
+	}
+
+	/** 前缀 + 后缀匹配：只含一个 '*'（包括 "prefix*"、"*suffix" 和 "*"） */
+	private static class PrefixSuffixMatcher extends GlobMatcher
+	{
+		private final String prefix;
+		private final String suffix;
+
+		PrefixSuffixMatcher(String prefix, String suffix, boolean ignoreCase)
+		{
+			super(ignoreCase);
+
+			this.prefix	= prefix;
+			this.suffix	= suffix;
+		}
+
+		@Override
+		public boolean matches(String name)
+		{
+			return	name.length() >= prefix.length() + suffix.length()	&&
+					regionEquals(name, 0, prefix)						&&
+					regionEquals(name, name.length() - suffix.length(), suffix);
+		}
+	}
+
+	/** 通用通配符匹配：含多个 '*' 或含 '?' */
+	private static class WildcardMatcher extends GlobMatcher
+	{
+		private final String glob;
+
+		WildcardMatcher(String glob, boolean ignoreCase)
+		{
+			super(ignoreCase);
+			this.glob = glob;
+		}
+
+		@Override
+		public boolean matches(String name)
+		{
+			return match(name, 0, 0);
+		}
+
+		private boolean match(String name, int gi, int ni)
+		{
+			for(; gi < glob.length(); gi++)
+			{
+				char c = glob.charAt(gi);
+
+				if(c == '*')
+				{
+					while(gi + 1 < glob.length() && glob.charAt(gi + 1) == '*')
+						++gi;
+
+					if(gi + 1 == glob.length())
+						return true;
+
+					for(int k = ni; k <= name.length(); k++)
+					{
+						if(match(name, gi + 1, k))
+							return true;
+					}
+
+					return false;
+				}
+				else if(c == '?')
+				{
+					if(ni < name.length() && match(name, gi + 1, ni + 1))
+						return true;
+				}
+				else if(ni < name.length() && charEquals(c, name.charAt(ni)))
+					++ni;
+				else
+					return false;
+			}
+
+			return ni == name.length();
+		}
+	}
+
+	/** 正则表达式匹配：兼容原来把通配符直接转换为正则表达式的实现 */
+	private static class RegexMatcher extends GlobMatcher
+	{
+		private final Pattern pattern;
+
+		RegexMatcher(String glob, boolean ignoreCase)
+		{
+			super(ignoreCase);
+
+			String exp = glob;
+			exp = exp.replace('.', '#');
+			exp = exp.replaceAll("#", "\\\\.");
+			exp = exp.replace('*', '#');
+			exp = exp.replaceAll("#", ".*");
+			exp = exp.replace('?', '#');
+			exp = exp.replaceAll("#", ".?");
+			exp = "^" + exp + "$";
+
+			pattern = Pattern.compile(exp, ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+		}
+
+		@Override
+		public boolean matches(String name)
+		{
+			return pattern.matcher(name).matches();
+		}
+	}
+}